@@ -6,8 +6,17 @@ import java.io.IOException;
 
 public class Cmm {
     public static void main(String[] args) throws IOException {
-        CharStream reader = CharStreams.fromFileName(args[0]);
-        CmmCompiler cmmCompiler = new CmmCompiler();
+        CompilerOptions options;
+        try {
+            options = CompilerOptions.fromArgs(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println("error: " + e.getMessage());
+            System.err.println("usage: Cmm [--option...] file.cmm");
+            System.exit(2);
+            return;
+        }
+        CharStream reader = CharStreams.fromFileName(CompilerOptions.getInputFile(args));
+        CmmCompiler cmmCompiler = new CmmCompiler(options);
         cmmCompiler.compile(reader);
     }
 }
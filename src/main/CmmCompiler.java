@@ -1,17 +1,38 @@
 package main;
 
+import main.ir.PassManager;
 import main.visitor.*;
+import main.visitor.codeGenerator.CodeEmitter;
 import main.visitor.codeGenerator.CodeGenerator;
 import main.visitor.name.*;
+import main.visitor.optimizer.ConstantFolder;
+import main.visitor.optimizer.Inliner;
+import main.visitor.optimizer.LoopInvariantCodeMotion;
+import main.visitor.optimizer.StrengthReduction;
+import main.visitor.optimizer.TreeShaker;
 import main.visitor.type.*;
 import parsers.*;
 import main.ast.nodes.Program;
 import org.antlr.v4.runtime.*;
 
+import com.sun.management.ThreadMXBean;
+
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
 import java.util.*;
 
 public class CmmCompiler {
+    private final CompilerOptions options;
+
+    public CmmCompiler() {
+        this(new CompilerOptions());
+    }
+
+    public CmmCompiler(CompilerOptions options) {
+        this.options = options;
+    }
+
     public void compile(CharStream textStream) {
         System.out.println("\n--------------------------Compiling--------------------------");
         CmmLexer cmmLexer = new CmmLexer(textStream);
@@ -34,30 +55,106 @@ public class CmmCompiler {
         if(numberOfErrors > 0)
             System.exit(1);
 
-        CodeGenerator codeGenerator = new CodeGenerator();
+        Inliner inliner = new Inliner(options.getInlineBudget());
+        if (options.getInlineBudget() > 0)
+            program.accept(inliner);
+        if (options.isConstantFolding())
+            program.accept(new ConstantFolder());
+        new PassManager(options).run(program);
+        if (options.isLoopInvariantCodeMotion())
+            program.accept(new LoopInvariantCodeMotion());
+        if (options.isStrengthReduction())
+            program.accept(new StrengthReduction());
+        TreeShaker treeShaker = new TreeShaker();
+        if (options.isTreeShaking())
+            program.accept(treeShaker);
+
+        CodeGenerator codeGenerator = new CodeGenerator(options);
         program.accept(codeGenerator);
 
         System.out.println("Compilation successful");
 
-        runJasminFiles();
+        if (!inliner.getInlinedCalls().isEmpty())
+            printInlinedCalls(inliner.getInlinedCalls());
+        if (!treeShaker.getRemovedDeclarations().isEmpty())
+            printRemovedDeclarations(treeShaker.getRemovedDeclarations());
+
+        if (codeGenerator.getPeepholeOptimizer() != null)
+            printRewriteCounts(codeGenerator.getPeepholeOptimizer().getRewriteCounts());
+
+        runJasminFiles(codeGenerator.getEmitter());
+    }
+
+    private void printInlinedCalls(List<String> inlinedCalls) {
+        System.out.println("\n-----------------------Inlined Calls------------------------");
+        for (String inlinedCall : inlinedCalls)
+            System.out.println(inlinedCall);
+    }
+
+    private void printRemovedDeclarations(List<String> removedDeclarations) {
+        System.out.println("\n--------------------Removed Declarations--------------------");
+        for (String removedDeclaration : removedDeclarations)
+            System.out.println(removedDeclaration);
     }
 
-    private void runJasminFiles() {
+    private void printRewriteCounts(Map<CompilerOptions.PeepholeRewrite, Integer> rewriteCounts) {
+        System.out.println("\n---------------------Peephole Rewrites----------------------");
+        for (Map.Entry<CompilerOptions.PeepholeRewrite, Integer> rewriteCount : rewriteCounts.entrySet())
+            System.out.println(rewriteCount.getKey().name().toLowerCase().replace('_', '-') + ": " + rewriteCount.getValue());
+    }
+
+    private void runJasminFiles(CodeEmitter emitter) {
+        System.out.println("\n-------------------Generating Class Files-------------------");
+        for (Map.Entry<String, byte[]> classFile : emitter.getClassFiles().entrySet()) {
+            try (OutputStream stream = new FileOutputStream("./output/" + classFile.getKey() + ".class")) {
+                stream.write(classFile.getValue());
+                System.out.println("Generated: " + classFile.getKey() + ".class");
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (emitter.getErrors() > 0)
+            System.exit(1);
+        System.out.println("\n---------------------------Output---------------------------");
+        if (options.getExecution() == CompilerOptions.Execution.IN_MEMORY)
+            runInMemory(emitter.getClassFiles());
+        else
+            runInProcess();
+    }
+
+    private void runInProcess() {
         try {
-            System.out.println("\n-------------------Generating Class Files-------------------");
-            File dir = new File("./output");
-            Process process = Runtime.getRuntime().exec("java -jar jasmin.jar *.j", null, dir);
+            ProcessBuilder builder = new ProcessBuilder("java", "Main");
+            builder.directory(new File("./output"));
+            builder.redirectErrorStream(true); // draining stdout and stderr one after another can block
+            Process process = builder.start();
             printResults(process.getInputStream());
-            printResults(process.getErrorStream());
-            System.out.println("\n---------------------------Output---------------------------");
-            process = Runtime.getRuntime().exec("java Main", null, dir);
-            printResults(process.getInputStream());
-            printResults(process.getErrorStream());
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    private void runInMemory(Map<String, byte[]> classFiles) {
+        ThreadMXBean threadBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long startBytes = threadBean.getThreadAllocatedBytes(threadId);
+        long startTime = System.nanoTime();
+        try {
+            Class<?> mainClass = new InMemoryClassLoader(classFiles).loadClass("Main");
+            mainClass.getMethod("main", String[].class).invoke(null, (Object) new String[0]);
+        } catch (InvocationTargetException e) {
+            e.getCause().printStackTrace(System.out);
+        } catch (ReflectiveOperationException e) {
+            e.printStackTrace();
+        }
+        System.out.flush();
+        long elapsed = System.nanoTime() - startTime;
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - startBytes;
+        System.out.println("\n-------------------------Statistics-------------------------");
+        System.out.printf("Wall time: %.3f ms%n", elapsed / 1e6);
+        System.out.println("Allocated: " + allocated + " bytes");
+    }
+
     private void printResults(InputStream stream) {
         BufferedReader reader = new BufferedReader(new InputStreamReader(stream));
         String line;
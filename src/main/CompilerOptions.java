@@ -0,0 +1,196 @@
+package main;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+public class CompilerOptions {
+    public enum Backend { JASMIN, CLASS_FILE }
+    public enum Execution { PROCESS, IN_MEMORY }
+    public enum PeepholeRewrite { BOX_UNBOX, CONSTANT_LOAD, REDUNDANT_CHECKCAST, GOTO_NEXT }
+    public enum OptimizationPass { GVN, COPY_PROP, DCE }
+
+    private boolean unboxedPrimitives = true;
+    private Backend backend = Backend.JASMIN;
+    private Execution execution = Execution.PROCESS;
+    private boolean constantFolding = true;
+    private boolean shortCircuit = true;
+    private EnumSet<PeepholeRewrite> peepholeRewrites = EnumSet.allOf(PeepholeRewrite.class);
+    private ArrayList<OptimizationPass> optimizationPasses = new ArrayList<>(List.of(OptimizationPass.values()));
+    private boolean dumpIr = false;
+    private boolean loopInvariantCodeMotion = true;
+    private boolean strengthReduction = true;
+    private int inlineBudget = 40;
+    private boolean treeShaking = true;
+
+    // Throws IllegalArgumentException naming the first option it does not know or cannot read.
+    public static CompilerOptions fromArgs(String[] args) {
+        CompilerOptions options = new CompilerOptions();
+        for (String arg : args) {
+            if (arg.equals("--boxed"))
+                options.setUnboxedPrimitives(false);
+            else if (arg.equals("--backend=jasmin"))
+                options.setBackend(Backend.JASMIN);
+            else if (arg.equals("--backend=classfile"))
+                options.setBackend(Backend.CLASS_FILE);
+            else if (arg.equals("--run=process"))
+                options.setExecution(Execution.PROCESS);
+            else if (arg.equals("--run=memory"))
+                options.setExecution(Execution.IN_MEMORY);
+            else if (arg.equals("--no-constant-folding"))
+                options.setConstantFolding(false);
+            else if (arg.equals("--eager-logic"))
+                options.setShortCircuit(false);
+            else if (arg.equals("--no-peephole"))
+                options.setPeepholeRewrites(EnumSet.noneOf(PeepholeRewrite.class));
+            else if (arg.startsWith("--peephole=")) { // e.g. --peephole=box-unbox,goto-next
+                EnumSet<PeepholeRewrite> rewrites = EnumSet.noneOf(PeepholeRewrite.class);
+                for (String rewrite : arg.substring("--peephole=".length()).split(","))
+                    if (!rewrite.isEmpty())
+                        rewrites.add(getValue(PeepholeRewrite.class, "--peephole", rewrite));
+                options.setPeepholeRewrites(rewrites);
+            } else if (arg.equals("--no-passes"))
+                options.setOptimizationPasses(new ArrayList<>());
+            else if (arg.startsWith("--passes=")) { // e.g. --passes=copy-prop,dce, run in the given order
+                ArrayList<OptimizationPass> passes = new ArrayList<>();
+                for (String pass : arg.substring("--passes=".length()).split(","))
+                    if (!pass.isEmpty())
+                        passes.add(getValue(OptimizationPass.class, "--passes", pass));
+                options.setOptimizationPasses(passes);
+            } else if (arg.equals("--dump-ir"))
+                options.setDumpIr(true);
+            else if (arg.equals("--no-licm"))
+                options.setLoopInvariantCodeMotion(false);
+            else if (arg.equals("--no-strength-reduction"))
+                options.setStrengthReduction(false);
+            else if (arg.equals("--no-inline"))
+                options.setInlineBudget(0);
+            else if (arg.equals("--no-tree-shaking"))
+                options.setTreeShaking(false);
+            else if (arg.startsWith("--inline-budget=")) // the most statements and expressions an inlined body may have
+                options.setInlineBudget(getBudget(arg.substring("--inline-budget=".length())));
+            else if (arg.startsWith("--"))
+                throw new IllegalArgumentException("unknown option " + arg);
+        }
+        if (getInputFile(args) == null)
+            throw new IllegalArgumentException("no input file");
+        return options;
+    }
+
+    private static int getBudget(String value) {
+        try {
+            int budget = Integer.parseInt(value);
+            if (budget >= 0)
+                return budget;
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException("--inline-budget needs a count of zero or more, not " + value);
+    }
+
+    // Reads a value such as copy-prop as the constant COPY_PROP.
+    private static <E extends Enum<E>> E getValue(Class<E> values, String option, String value) {
+        for (E constant : values.getEnumConstants())
+            if (getName(constant).equals(value))
+                return constant;
+        StringBuilder names = new StringBuilder();
+        for (E constant : values.getEnumConstants())
+            names.append(names.length() == 0 ? "" : ", ").append(getName(constant));
+        throw new IllegalArgumentException("unknown value " + value + " for " + option + " (one of " + names + ")");
+    }
+
+    private static String getName(Enum<?> constant) {
+        return constant.name().toLowerCase().replace('_', '-');
+    }
+
+    public static String getInputFile(String[] args) {
+        String inputFile = null;
+        for (String arg : args)
+            if (!arg.startsWith("--"))
+                inputFile = arg;
+        return inputFile;
+    }
+
+    public boolean isUnboxedPrimitives() {
+        return unboxedPrimitives;
+    }
+    public void setUnboxedPrimitives(boolean unboxedPrimitives) {
+        this.unboxedPrimitives = unboxedPrimitives;
+    }
+
+    public Backend getBackend() {
+        return backend;
+    }
+    public void setBackend(Backend backend) {
+        this.backend = backend;
+    }
+
+    public Execution getExecution() {
+        return execution;
+    }
+    public void setExecution(Execution execution) {
+        this.execution = execution;
+    }
+
+    public boolean isConstantFolding() {
+        return constantFolding;
+    }
+    public void setConstantFolding(boolean constantFolding) {
+        this.constantFolding = constantFolding;
+    }
+
+    public EnumSet<PeepholeRewrite> getPeepholeRewrites() {
+        return peepholeRewrites;
+    }
+    public void setPeepholeRewrites(EnumSet<PeepholeRewrite> peepholeRewrites) {
+        this.peepholeRewrites = peepholeRewrites;
+    }
+
+    public boolean isShortCircuit() {
+        return shortCircuit;
+    }
+    public void setShortCircuit(boolean shortCircuit) {
+        this.shortCircuit = shortCircuit;
+    }
+
+    public ArrayList<OptimizationPass> getOptimizationPasses() {
+        return optimizationPasses;
+    }
+    public void setOptimizationPasses(ArrayList<OptimizationPass> optimizationPasses) {
+        this.optimizationPasses = optimizationPasses;
+    }
+
+    public boolean isDumpIr() {
+        return dumpIr;
+    }
+    public void setDumpIr(boolean dumpIr) {
+        this.dumpIr = dumpIr;
+    }
+
+    public boolean isLoopInvariantCodeMotion() {
+        return loopInvariantCodeMotion;
+    }
+    public void setLoopInvariantCodeMotion(boolean loopInvariantCodeMotion) {
+        this.loopInvariantCodeMotion = loopInvariantCodeMotion;
+    }
+
+    public boolean isStrengthReduction() {
+        return strengthReduction;
+    }
+    public void setStrengthReduction(boolean strengthReduction) {
+        this.strengthReduction = strengthReduction;
+    }
+
+    public int getInlineBudget() {
+        return inlineBudget;
+    }
+    public void setInlineBudget(int inlineBudget) {
+        this.inlineBudget = inlineBudget;
+    }
+
+    public boolean isTreeShaking() {
+        return treeShaking;
+    }
+    public void setTreeShaking(boolean treeShaking) {
+        this.treeShaking = treeShaking;
+    }
+}
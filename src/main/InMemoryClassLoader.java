@@ -0,0 +1,22 @@
+package main;
+
+import java.util.*;
+
+// Defines the generated classes straight from the emitter's class bytes, so a program
+// can run inside the compiler's JVM without touching output/.
+public class InMemoryClassLoader extends ClassLoader {
+    private final Map<String, byte[]> classFiles;
+
+    public InMemoryClassLoader(Map<String, byte[]> classFiles) {
+        super(InMemoryClassLoader.class.getClassLoader());
+        this.classFiles = classFiles;
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        byte[] bytes = classFiles.get(name.replace('.', '/'));
+        if (bytes == null)
+            throw new ClassNotFoundException(name);
+        return defineClass(name, bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,88 @@
+package main.ir;
+
+import java.util.*;
+
+public class BasicBlock {
+    private final int id;
+    private final ArrayList<Operation> phis = new ArrayList<>();
+    private final ArrayList<Operation> operations = new ArrayList<>();
+    private final ArrayList<BasicBlock> predecessors = new ArrayList<>();
+    private final ArrayList<BasicBlock> successors = new ArrayList<>();
+    private final HashMap<String, Operation> incompletePhis = new HashMap<>();
+    private boolean sealed = false;
+
+    public BasicBlock(int id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return "b" + id;
+    }
+
+    public ArrayList<Operation> getPhis() {
+        return phis;
+    }
+
+    public ArrayList<Operation> getOperations() {
+        return operations;
+    }
+
+    public ArrayList<BasicBlock> getPredecessors() {
+        return predecessors;
+    }
+
+    public ArrayList<BasicBlock> getSuccessors() {
+        return successors;
+    }
+
+    public HashMap<String, Operation> getIncompletePhis() {
+        return incompletePhis;
+    }
+
+    public boolean isSealed() {
+        return sealed;
+    }
+
+    public void setSealed(boolean sealed) {
+        this.sealed = sealed;
+    }
+
+    public void addOperation(Operation operation) {
+        operation.setBlock(this);
+        if (operation.getKind() == Operation.Kind.PHI)
+            phis.add(operation);
+        else
+            operations.add(operation);
+    }
+
+    public boolean isTerminated() {
+        if (operations.isEmpty())
+            return false;
+        Operation.Kind kind = operations.get(operations.size() - 1).getKind();
+        return kind == Operation.Kind.BRANCH || kind == Operation.Kind.JUMP || kind == Operation.Kind.RETURN;
+    }
+
+    public void addSuccessor(BasicBlock successor) {
+        successors.add(successor);
+        successor.predecessors.add(this);
+    }
+
+    @Override
+    public String toString() {
+        var text = new StringBuilder(getName()).append(":");
+        if (!predecessors.isEmpty()) {
+            ArrayList<String> names = new ArrayList<>();
+            for (BasicBlock predecessor : predecessors)
+                names.add(predecessor.getName());
+            text.append("  ; preds ").append(String.join(", ", names));
+        }
+        text.append("\n");
+        for (Operation phi : phis)
+            if (!phi.isRemoved())
+                text.append("    ").append(phi).append("\n");
+        for (Operation operation : operations)
+            if (!operation.isRemoved())
+                text.append("    ").append(operation).append("\n");
+        return text.toString();
+    }
+}
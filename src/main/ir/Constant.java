@@ -0,0 +1,25 @@
+package main.ir;
+
+import main.ast.types.Type;
+import main.ast.types.primitives.*;
+
+// An int or bool constant; bools are kept as 0 and 1.
+public class Constant extends Value {
+    private final int constant;
+
+    public Constant(Type type, int constant) {
+        super(type);
+        this.constant = constant;
+    }
+
+    public int getConstant() {
+        return constant;
+    }
+
+    @Override
+    public String getName() {
+        if (getType() instanceof BoolType)
+            return constant != 0 ? "true" : "false";
+        return String.valueOf(constant);
+    }
+}
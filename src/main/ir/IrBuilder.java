@@ -0,0 +1,454 @@
+package main.ir;
+
+import main.ast.nodes.declaration.VariableDeclaration;
+import main.ast.nodes.expression.*;
+import main.ast.nodes.expression.operators.*;
+import main.ast.nodes.expression.values.primitive.*;
+import main.ast.nodes.statement.*;
+import main.ast.types.*;
+import main.ast.types.primitives.*;
+import main.symbolTable.SymbolTable;
+import main.symbolTable.exceptions.ItemNotFoundException;
+import main.symbolTable.items.FunctionSymbolTableItem;
+import main.visitor.Visitor;
+
+import java.util.*;
+
+// Lowers a function body into SSA form while walking it, in the way of Braun et al.: a variable
+// read looks for its definition backwards through the blocks and places phis only where paths
+// with different definitions meet, and a block is sealed once all of its predecessors are known.
+// int and bool locals declared once are the SSA variables; everything else is OPAQUE. The
+// builder remembers the value every expression node produced and where it was evaluated, so
+// IrWriteBack can put what the passes found back into the AST.
+class IrBuilder extends Visitor<Value> {
+    private final IrFunction function;
+    private final HashMap<String, Type> variables = new HashMap<>();
+    private final HashSet<String> locals = new HashSet<>();
+    private final HashMap<String, HashMap<BasicBlock, Value>> currentDefinitions = new HashMap<>();
+    private final ArrayDeque<ArrayList<String>> scopes = new ArrayDeque<>();
+    private final IdentityHashMap<Expression, Value> values = new IdentityHashMap<>();
+    private final IdentityHashMap<Expression, BasicBlock> blocks = new IdentityHashMap<>();
+    private final IdentityHashMap<Expression, Integer> positions = new IdentityHashMap<>();
+    private final IdentityHashMap<AssignmentStmt, Operation> assignments = new IdentityHashMap<>();
+    private final ArrayList<Operation> versions = new ArrayList<>();
+    private BasicBlock current;
+
+    public IrBuilder(String name) {
+        this.function = new IrFunction(name);
+    }
+
+    public IrFunction build(Statement body, ArrayList<VariableDeclaration> args) {
+        LocalDeclarations declarations = new LocalDeclarations();
+        for (VariableDeclaration arg : args)
+            declarations.declare(arg);
+        body.accept(declarations);
+        locals.addAll(declarations.counts.keySet());
+        for (Map.Entry<String, Integer> count : declarations.counts.entrySet()) {
+            Type type = declarations.types.get(count.getKey());
+            if (count.getValue() == 1 && (type instanceof IntType || type instanceof BoolType)
+                    && !isFunctionName(count.getKey()))
+                variables.put(count.getKey(), type);
+        }
+        current = function.newBlock();
+        current.setSealed(true);
+        scopes.push(new ArrayList<>());
+        for (VariableDeclaration arg : args) {
+            String name = arg.getVarName().getName();
+            if (variables.containsKey(name))
+                writeVariable(name, current, emit(Operation.Kind.PARAM, "param", name, variables.get(name), false));
+        }
+        body.accept(this);
+        if (!current.isTerminated())
+            emit(Operation.Kind.RETURN, "return", null, new VoidType(), true);
+        return function;
+    }
+
+    private boolean isFunctionName(String name) {
+        try {
+            SymbolTable.root.getItem(FunctionSymbolTableItem.START_KEY + name);
+            return true;
+        } catch (ItemNotFoundException e) {
+            return false;
+        }
+    }
+
+    public IrFunction getFunction() {
+        return function;
+    }
+
+    public boolean isVariable(String name) {
+        return variables.containsKey(name);
+    }
+
+    public Value getValue(Expression expression) {
+        return values.get(expression);
+    }
+
+    public Operation getAssignment(AssignmentStmt assignmentStmt) {
+        return assignments.get(assignmentStmt);
+    }
+
+    public ArrayList<Operation> getVersions() {
+        return versions;
+    }
+
+    // The value a variable holds right before the given expression node is evaluated.
+    public Value valueAt(String variable, Expression expression) {
+        BasicBlock block = blocks.get(expression);
+        ArrayList<Operation> operations = block.getOperations();
+        for (int i = positions.get(expression) - 1; i >= 0; i--)
+            if (operations.get(i).isVersion() && variable.equals(operations.get(i).getVariable()))
+                return operations.get(i).resolve();
+        return valueAtEntry(variable, block).resolve();
+    }
+
+    private Value valueAtEntry(String variable, BasicBlock block) {
+        for (Operation phi : block.getPhis())
+            if (variable.equals(phi.getVariable()))
+                return phi;
+        if (!definesVariable(block, variable))
+            return readVariable(variable, block);
+        if (block.getPredecessors().isEmpty())
+            return function.getUndefined();
+        if (block.getPredecessors().size() == 1)
+            return readVariable(variable, block.getPredecessors().get(0));
+        return addPhiOperands(newPhi(block, variable));
+    }
+
+    private boolean definesVariable(BasicBlock block, String variable) {
+        for (Operation operation : block.getOperations())
+            if (operation.isVersion() && variable.equals(operation.getVariable()))
+                return true;
+        return false;
+    }
+
+    private Operation emit(Operation.Kind kind, String opcode, String variable, Type type, boolean sideEffects,
+                           Value... operands) {
+        Operation operation = new Operation(function.nextOperationId(), kind, opcode, variable, type, sideEffects);
+        for (Value operand : operands)
+            operation.addOperand(operand);
+        current.addOperation(operation);
+        if (operation.isVersion())
+            versions.add(operation);
+        return operation;
+    }
+
+    private Operation newPhi(BasicBlock block, String variable) {
+        Operation phi = new Operation(function.nextOperationId(), Operation.Kind.PHI, "phi", variable,
+                variables.get(variable), false);
+        block.addOperation(phi);
+        versions.add(phi);
+        return phi;
+    }
+
+    private void writeVariable(String variable, BasicBlock block, Value value) {
+        currentDefinitions.computeIfAbsent(variable, k -> new HashMap<>()).put(block, value);
+    }
+
+    private Value readVariable(String variable, BasicBlock block) {
+        Value value = currentDefinitions.getOrDefault(variable, new HashMap<>()).get(block);
+        if (value != null)
+            return value.resolve();
+        return readVariableRecursive(variable, block);
+    }
+
+    private Value readVariableRecursive(String variable, BasicBlock block) {
+        Value value;
+        if (!block.isSealed()) {
+            Operation phi = newPhi(block, variable);
+            block.getIncompletePhis().put(variable, phi);
+            value = phi;
+        } else if (block.getPredecessors().isEmpty())
+            value = function.getUndefined();
+        else if (block.getPredecessors().size() == 1)
+            value = readVariable(variable, block.getPredecessors().get(0));
+        else {
+            Operation phi = newPhi(block, variable);
+            writeVariable(variable, block, phi);
+            value = addPhiOperands(phi);
+        }
+        writeVariable(variable, block, value);
+        return value;
+    }
+
+    private Value addPhiOperands(Operation phi) {
+        for (BasicBlock predecessor : phi.getBlock().getPredecessors())
+            phi.addOperand(readVariable(phi.getVariable(), predecessor));
+        return IrFunction.removeTrivialPhi(phi);
+    }
+
+    private void sealBlock(BasicBlock block) {
+        for (Operation phi : block.getIncompletePhis().values())
+            addPhiOperands(phi);
+        block.getIncompletePhis().clear();
+        block.setSealed(true);
+    }
+
+    private void jumpTo(BasicBlock target) {
+        emit(Operation.Kind.JUMP, "jump", null, new VoidType(), true);
+        current.addSuccessor(target);
+    }
+
+    private BasicBlock newSealedBlock() {
+        BasicBlock block = function.newBlock();
+        block.setSealed(true);
+        return block;
+    }
+
+    // Variables declared inside the body are undefined once it ends.
+    private void lowerScope(Statement body) {
+        scopes.push(new ArrayList<>());
+        body.accept(this);
+        for (String variable : scopes.pop())
+            writeVariable(variable, current, emit(Operation.Kind.COPY, "copy", variable, variables.get(variable),
+                    false, function.getUndefined()));
+    }
+
+    private Value lower(Expression expression) {
+        blocks.put(expression, current);
+        positions.put(expression, current.getOperations().size());
+        Value value = expression.accept(this);
+        values.put(expression, value);
+        return value;
+    }
+
+    @Override
+    public Value visit(VariableDeclaration variableDeclaration) {
+        String name = variableDeclaration.getVarName().getName();
+        Value value = null;
+        if (variableDeclaration.getDefaultValue() != null)
+            value = lower(variableDeclaration.getDefaultValue());
+        if (variables.containsKey(name)) {
+            if (value == null)
+                value = function.getConstant(variables.get(name), 0);
+            writeVariable(name, current, emit(Operation.Kind.COPY, "copy", name, variables.get(name), false, value));
+            scopes.peek().add(name);
+        } else if (value != null)
+            emit(Operation.Kind.OPAQUE, "store " + name, null, new VoidType(), true, value);
+        return null;
+    }
+
+    @Override
+    public Value visit(SetGetVarDeclaration setGetVarDeclaration) {
+        return null;
+    }
+
+    @Override
+    public Value visit(AssignmentStmt assignmentStmt) {
+        Expression lValue = assignmentStmt.getLValue();
+        if (lValue instanceof Identifier && variables.containsKey(((Identifier) lValue).getName())) {
+            String name = ((Identifier) lValue).getName();
+            Value value = lower(assignmentStmt.getRValue());
+            Operation copy = emit(Operation.Kind.COPY, "copy", name, variables.get(name), false, value);
+            writeVariable(name, current, copy);
+            assignments.put(assignmentStmt, copy);
+        } else if (lValue instanceof ListAccessByIndex) {
+            Value list = lower(((ListAccessByIndex) lValue).getInstance());
+            Value index = lower(((ListAccessByIndex) lValue).getIndex());
+            Value value = lower(assignmentStmt.getRValue());
+            emit(Operation.Kind.OPAQUE, "store index", null, new VoidType(), true, list, index, value);
+        } else if (lValue instanceof StructAccess) {
+            Value instance = lower(((StructAccess) lValue).getInstance());
+            Value value = lower(assignmentStmt.getRValue());
+            emit(Operation.Kind.OPAQUE, "store field " + ((StructAccess) lValue).getElement().getName(), null,
+                    new VoidType(), true, instance, value);
+        } else {
+            Value value = lower(assignmentStmt.getRValue());
+            emit(Operation.Kind.OPAQUE, "store " + ((Identifier) lValue).getName(), null, new VoidType(), true, value);
+        }
+        return null;
+    }
+
+    @Override
+    public Value visit(BlockStmt blockStmt) {
+        for (Statement statement : blockStmt.getStatements())
+            statement.accept(this);
+        return null;
+    }
+
+    @Override
+    public Value visit(ConditionalStmt conditionalStmt) {
+        Value condition = lower(conditionalStmt.getCondition());
+        BasicBlock thenBlock = newSealedBlock();
+        BasicBlock elseBlock = conditionalStmt.getElseBody() != null ? newSealedBlock() : null;
+        BasicBlock join = function.newBlock();
+        emit(Operation.Kind.BRANCH, "branch", null, new VoidType(), true, condition);
+        current.addSuccessor(thenBlock);
+        current.addSuccessor(elseBlock != null ? elseBlock : join);
+        current = thenBlock;
+        lowerScope(conditionalStmt.getThenBody());
+        jumpTo(join);
+        if (elseBlock != null) {
+            current = elseBlock;
+            lowerScope(conditionalStmt.getElseBody());
+            jumpTo(join);
+        }
+        sealBlock(join);
+        current = join;
+        return null;
+    }
+
+    @Override
+    public Value visit(FunctionCallStmt functionCallStmt) {
+        lower(functionCallStmt.getFunctionCall());
+        return null;
+    }
+
+    @Override
+    public Value visit(DisplayStmt displayStmt) {
+        emit(Operation.Kind.OPAQUE, "display", null, new VoidType(), true, lower(displayStmt.getArg()));
+        return null;
+    }
+
+    // Code after a return goes into a block nothing jumps to.
+    @Override
+    public Value visit(ReturnStmt returnStmt) {
+        if (returnStmt.getReturnedExpr() != null)
+            emit(Operation.Kind.RETURN, "return", null, new VoidType(), true, lower(returnStmt.getReturnedExpr()));
+        else
+            emit(Operation.Kind.RETURN, "return", null, new VoidType(), true);
+        current = newSealedBlock();
+        return null;
+    }
+
+    @Override
+    public Value visit(LoopStmt loopStmt) {
+        if (loopStmt.getIsDoWhile()) {
+            BasicBlock body = function.newBlock();
+            BasicBlock exit = function.newBlock();
+            jumpTo(body);
+            current = body;
+            lowerScope(loopStmt.getBody());
+            Value condition = lower(loopStmt.getCondition());
+            emit(Operation.Kind.BRANCH, "branch", null, new VoidType(), true, condition);
+            current.addSuccessor(body);
+            current.addSuccessor(exit);
+            sealBlock(body);
+            sealBlock(exit);
+            current = exit;
+            return null;
+        }
+        BasicBlock header = function.newBlock();
+        BasicBlock body = function.newBlock();
+        BasicBlock exit = function.newBlock();
+        jumpTo(header);
+        current = header;
+        Value condition = lower(loopStmt.getCondition());
+        emit(Operation.Kind.BRANCH, "branch", null, new VoidType(), true, condition);
+        current.addSuccessor(body);
+        current.addSuccessor(exit);
+        sealBlock(body);
+        current = body;
+        lowerScope(loopStmt.getBody());
+        jumpTo(header);
+        sealBlock(header);
+        sealBlock(exit);
+        current = exit;
+        return null;
+    }
+
+    @Override
+    public Value visit(VarDecStmt varDecStmt) {
+        for (VariableDeclaration variableDeclaration : varDecStmt.getVars())
+            variableDeclaration.accept(this);
+        return null;
+    }
+
+    @Override
+    public Value visit(ListAppendStmt listAppendStmt) {
+        lower(listAppendStmt.getListAppendExpr());
+        return null;
+    }
+
+    @Override
+    public Value visit(ListSizeStmt listSizeStmt) {
+        lower(listSizeStmt.getListSizeExpr());
+        return null;
+    }
+
+    // Division can throw, so it is kept even when its result is unused.
+    @Override
+    public Value visit(BinaryExpression binaryExpression) {
+        Value first = lower(binaryExpression.getFirstOperand());
+        Value second = lower(binaryExpression.getSecondOperand());
+        BinaryOperator operator = binaryExpression.getBinaryOperator();
+        Type type = operator == BinaryOperator.gt || operator == BinaryOperator.lt || operator == BinaryOperator.eq
+                || operator == BinaryOperator.and || operator == BinaryOperator.or ? new BoolType() : new IntType();
+        return emit(Operation.Kind.BINARY, operator.name(), null, type, operator == BinaryOperator.div, first, second);
+    }
+
+    @Override
+    public Value visit(UnaryExpression unaryExpression) {
+        Value operand = lower(unaryExpression.getOperand());
+        UnaryOperator operator = unaryExpression.getOperator();
+        Type type = operator == UnaryOperator.not ? new BoolType() : new IntType();
+        return emit(Operation.Kind.UNARY, operator.name(), null, type, false, operand);
+    }
+
+    @Override
+    public Value visit(StructAccess structAccess) {
+        Value instance = lower(structAccess.getInstance());
+        return emit(Operation.Kind.OPAQUE, "field " + structAccess.getElement().getName(), null, new NoType(), false,
+                instance);
+    }
+
+    @Override
+    public Value visit(Identifier identifier) {
+        if (variables.containsKey(identifier.getName()))
+            return readVariable(identifier.getName(), current);
+        return emit(Operation.Kind.OPAQUE, "load " + identifier.getName(), null, new NoType(), false);
+    }
+
+    @Override
+    public Value visit(ListAccessByIndex listAccessByIndex) {
+        Value list = lower(listAccessByIndex.getInstance());
+        Value index = lower(listAccessByIndex.getIndex());
+        return emit(Operation.Kind.OPAQUE, "index", null, new NoType(), true, list, index);
+    }
+
+    @Override
+    public Value visit(FunctionCall functionCall) {
+        ArrayList<Value> operands = new ArrayList<>();
+        String opcode = "call";
+        Expression instance = functionCall.getInstance();
+        if (instance instanceof Identifier && !locals.contains(((Identifier) instance).getName()))
+            opcode = "call " + ((Identifier) instance).getName();
+        else
+            operands.add(lower(instance));
+        for (Expression arg : functionCall.getArgs())
+            operands.add(lower(arg));
+        return emit(Operation.Kind.OPAQUE, opcode, null, new NoType(), true, operands.toArray(new Value[0]));
+    }
+
+    @Override
+    public Value visit(ListSize listSize) {
+        return emit(Operation.Kind.OPAQUE, "size", null, new IntType(), false, lower(listSize.getArg()));
+    }
+
+    @Override
+    public Value visit(ListAppend listAppend) {
+        Value list = lower(listAppend.getListArg());
+        Value element = lower(listAppend.getElementArg());
+        return emit(Operation.Kind.OPAQUE, "append", null, new VoidType(), true, list, element);
+    }
+
+    @Override
+    public Value visit(IntValue intValue) {
+        return function.getConstant(new IntType(), intValue.getConstant());
+    }
+
+    @Override
+    public Value visit(BoolValue boolValue) {
+        return function.getConstant(new BoolType(), boolValue.getConstant() ? 1 : 0);
+    }
+
+    @Override
+    public Value visit(ExprInPar exprInPar) {
+        ArrayList<Value> inputs = new ArrayList<>();
+        for (Expression input : exprInPar.getInputs())
+            inputs.add(lower(input));
+        if (inputs.size() == 1)
+            return inputs.get(0);
+        return emit(Operation.Kind.OPAQUE, "tuple", null, new NoType(), true, inputs.toArray(new Value[0]));
+    }
+}
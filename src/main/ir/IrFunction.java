@@ -0,0 +1,162 @@
+package main.ir;
+
+import main.ast.types.Type;
+
+import java.util.*;
+
+public class IrFunction {
+    private final String name;
+    private final ArrayList<BasicBlock> blocks = new ArrayList<>();
+    private final Undefined undefined = new Undefined();
+    private final HashMap<String, Constant> constants = new HashMap<>();
+    private int nextOperationId = 0;
+
+    public IrFunction(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public ArrayList<BasicBlock> getBlocks() {
+        return blocks;
+    }
+
+    public BasicBlock getEntry() {
+        return blocks.get(0);
+    }
+
+    public Undefined getUndefined() {
+        return undefined;
+    }
+
+    // Equal constants are one value, so phis and value numbers can compare them by identity.
+    public Constant getConstant(Type type, int constant) {
+        Constant value = new Constant(type, constant);
+        return constants.computeIfAbsent(value.getName(), k -> value);
+    }
+
+    public BasicBlock newBlock() {
+        BasicBlock block = new BasicBlock(blocks.size());
+        blocks.add(block);
+        return block;
+    }
+
+    public int nextOperationId() {
+        return nextOperationId++;
+    }
+
+    // Blocks in reverse postorder from the entry; unreachable blocks are left out.
+    public ArrayList<BasicBlock> getReversePostorder() {
+        ArrayList<BasicBlock> postorder = new ArrayList<>();
+        HashSet<BasicBlock> visited = new HashSet<>();
+        ArrayDeque<Iterator<BasicBlock>> stack = new ArrayDeque<>();
+        ArrayDeque<BasicBlock> path = new ArrayDeque<>();
+        visited.add(getEntry());
+        stack.push(getEntry().getSuccessors().iterator());
+        path.push(getEntry());
+        while (!stack.isEmpty()) {
+            if (stack.peek().hasNext()) {
+                BasicBlock successor = stack.peek().next();
+                if (visited.add(successor)) {
+                    stack.push(successor.getSuccessors().iterator());
+                    path.push(successor);
+                }
+            } else {
+                stack.pop();
+                postorder.add(path.pop());
+            }
+        }
+        Collections.reverse(postorder);
+        return postorder;
+    }
+
+    // A value with the copies it passes through taken away.
+    public static Value stripCopies(Value value) {
+        value = value.resolve();
+        while (value instanceof Operation && ((Operation) value).getKind() == Operation.Kind.COPY)
+            value = ((Operation) value).getOperands().get(0).resolve();
+        return value;
+    }
+
+    // A phi whose operands are all one value, apart from the phi itself, is that value.
+    static Value removeTrivialPhi(Operation phi) {
+        Value same = null;
+        for (Value operand : phi.getOperands()) {
+            Value value = operand.resolve();
+            if (value == same || value == phi)
+                continue;
+            if (same != null)
+                return phi;
+            same = value;
+        }
+        if (same == null)
+            return phi;
+        phi.replaceWith(same);
+        return same;
+    }
+
+    // Removing a trivial phi can make the phis that use it trivial as well.
+    public void removeTrivialPhis() {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (BasicBlock block : blocks)
+                for (Operation phi : block.getPhis())
+                    if (!phi.isRemoved() && removeTrivialPhi(phi) != phi)
+                        changed = true;
+        }
+    }
+
+    // Children in the dominator tree of every reachable block, found with the iterative algorithm
+    // of Cooper, Harvey and Kennedy.
+    public HashMap<BasicBlock, ArrayList<BasicBlock>> getDominatorTree() {
+        ArrayList<BasicBlock> order = getReversePostorder();
+        HashMap<BasicBlock, Integer> indices = new HashMap<>();
+        for (int i = 0; i < order.size(); i++)
+            indices.put(order.get(i), i);
+        HashMap<BasicBlock, BasicBlock> dominators = new HashMap<>();
+        dominators.put(getEntry(), getEntry());
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (BasicBlock block : order.subList(1, order.size())) {
+                BasicBlock dominator = null;
+                for (BasicBlock predecessor : block.getPredecessors())
+                    if (dominators.containsKey(predecessor))
+                        dominator = dominator == null ? predecessor
+                                : intersect(predecessor, dominator, dominators, indices);
+                if (dominators.get(block) != dominator) {
+                    dominators.put(block, dominator);
+                    changed = true;
+                }
+            }
+        }
+        HashMap<BasicBlock, ArrayList<BasicBlock>> children = new HashMap<>();
+        for (BasicBlock block : order)
+            children.put(block, new ArrayList<>());
+        for (BasicBlock block : order.subList(1, order.size()))
+            children.get(dominators.get(block)).add(block);
+        return children;
+    }
+
+    private static BasicBlock intersect(BasicBlock first, BasicBlock second, HashMap<BasicBlock, BasicBlock> dominators,
+                                        HashMap<BasicBlock, Integer> indices) {
+        while (first != second) {
+            while (indices.get(first) > indices.get(second))
+                first = dominators.get(first);
+            while (indices.get(second) > indices.get(first))
+                second = dominators.get(second);
+        }
+        return first;
+    }
+
+    @Override
+    public String toString() {
+        var text = new StringBuilder("function ").append(name).append("\n");
+        for (BasicBlock block : blocks)
+            text.append(block);
+        return text.toString();
+    }
+}
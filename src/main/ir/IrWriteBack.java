@@ -0,0 +1,232 @@
+package main.ir;
+
+import main.ast.nodes.declaration.VariableDeclaration;
+import main.ast.nodes.expression.*;
+import main.ast.nodes.expression.values.primitive.*;
+import main.ast.nodes.statement.*;
+import main.ast.types.primitives.BoolType;
+import main.visitor.optimizer.ExpressionRewriter;
+import main.visitor.optimizer.SideEffects;
+
+import java.util.*;
+
+// Puts what the passes found back into the AST the CodeGenerator compiles. An expression whose
+// value was replaced becomes a literal, or a variable that holds the same value where the
+// expression is evaluated, and an assignment whose copy was found dead is dropped unless its
+// right side has side effects. When no variable holds the value, the expression it repeats is
+// kept in a gvn$N local declared right before the statement of that expression.
+class IrWriteBack extends ExpressionRewriter {
+    private final IrBuilder builder;
+    private final HashMap<Value, ArrayList<String>> holders = new HashMap<>();
+    private final HashMap<Value, BlockStmt> leaderBlocks = new HashMap<>();
+    private final HashSet<Value> sharedLeaders = new HashSet<>();
+    private final HashMap<Value, String> temps = new HashMap<>();
+    private ArrayList<VariableDeclaration> declarations = new ArrayList<>();
+    private int tempCount;
+
+    public IrWriteBack(IrBuilder builder, int tempCount) {
+        this.builder = builder;
+        this.tempCount = tempCount;
+        for (Operation version : builder.getVersions()) {
+            Value value = IrFunction.stripCopies(version);
+            if (value instanceof Undefined)
+                continue;
+            ArrayList<String> variables = holders.computeIfAbsent(value, k -> new ArrayList<>());
+            if (!variables.contains(version.getVariable()))
+                variables.add(version.getVariable());
+        }
+    }
+
+    public int getTempCount() {
+        return tempCount;
+    }
+
+    // Returns null when no literal or variable holds the value at the expression.
+    private Expression replacementFor(Expression expression, Value target, String excludedVariable) {
+        Value value = IrFunction.stripCopies(target);
+        Expression replacement = null;
+        if (value instanceof Constant) {
+            int constant = ((Constant) value).getConstant();
+            replacement = value.getType() instanceof BoolType ? new BoolValue(constant != 0) : new IntValue(constant);
+        } else
+            for (String variable : holders.getOrDefault(value, new ArrayList<>()))
+                if (!variable.equals(excludedVariable)
+                        && IrFunction.stripCopies(builder.valueAt(variable, expression)) == value) {
+                    replacement = new Identifier(variable);
+                    break;
+                }
+        if (replacement != null)
+            replacement.setLine(expression.getLine());
+        return replacement;
+    }
+
+    private Expression replaced(Expression expression, String excludedVariable) {
+        Value value = builder.getValue(expression);
+        if (value == null || value.resolve() == value)
+            return null;
+        return replacementFor(expression, value.resolve(), excludedVariable);
+    }
+
+    // Like replaced, but also takes the temp of the expression the given one repeats.
+    private Expression replacedOrTemp(Expression expression) {
+        Expression replacement = replaced(expression, null);
+        Value value = builder.getValue(expression);
+        if (replacement != null || value == null || value.resolve() == value)
+            return replacement;
+        String temp = temps.get(IrFunction.stripCopies(value));
+        if (temp == null)
+            return null;
+        replacement = new Identifier(temp);
+        replacement.setLine(expression.getLine());
+        return replacement;
+    }
+
+    // Whether an expression needs a temp depends on the repeats after it, so the leaders are
+    // found in a first walk.
+    void rewrite(Statement body) {
+        body.accept(new Leaders());
+        body.accept(this);
+    }
+
+    @Override
+    public Expression visit(BlockStmt blockStmt) {
+        ArrayList<Statement> statements = blockStmt.getStatements();
+        statements.removeIf(this::isDeadAssignment);
+        ArrayList<VariableDeclaration> outer = declarations;
+        for (int i = 0; i < statements.size(); i++) {
+            declarations = new ArrayList<>();
+            Statement statement = statements.get(i);
+            statement.accept(this);
+            if (!declarations.isEmpty()) {
+                VarDecStmt varDecStmt = new VarDecStmt();
+                varDecStmt.setVars(declarations);
+                varDecStmt.setLine(statement.getLine());
+                statements.add(i++, varDecStmt);
+            }
+        }
+        declarations = outer;
+        return null;
+    }
+
+    private boolean isDeadAssignment(Statement statement) {
+        if (!(statement instanceof AssignmentStmt))
+            return false;
+        Operation copy = builder.getAssignment((AssignmentStmt) statement);
+        return copy != null && copy.isRemoved() && copy.resolve() == copy
+                && !SideEffects.hasSideEffects(((AssignmentStmt) statement).getRValue());
+    }
+
+    private Expression holdInTemp(Expression expression, Expression rewritten) {
+        Value value = builder.getValue(expression);
+        if (!sharedLeaders.contains(value))
+            return rewritten;
+        Identifier name = new Identifier("gvn$" + tempCount++);
+        name.setLine(expression.getLine());
+        VariableDeclaration variableDeclaration = new VariableDeclaration(name, value.getType());
+        variableDeclaration.setDefaultValue(rewritten);
+        variableDeclaration.setLine(expression.getLine());
+        declarations.add(variableDeclaration);
+        temps.put(value, name.getName());
+        Identifier use = new Identifier(name.getName());
+        use.setLine(expression.getLine());
+        return use;
+    }
+
+    @Override
+    public Expression visit(Identifier identifier) {
+        if (!builder.isVariable(identifier.getName()))
+            return identifier;
+        Expression replacement = replaced(identifier, identifier.getName());
+        return replacement != null ? replacement : identifier;
+    }
+
+    @Override
+    public Expression visit(BinaryExpression binaryExpression) {
+        Expression replacement = replacedOrTemp(binaryExpression);
+        if (replacement != null && !SideEffects.hasSideEffects(binaryExpression))
+            return replacement;
+        return holdInTemp(binaryExpression, super.visit(binaryExpression));
+    }
+
+    @Override
+    public Expression visit(UnaryExpression unaryExpression) {
+        Expression replacement = replacedOrTemp(unaryExpression);
+        if (replacement != null && !SideEffects.hasSideEffects(unaryExpression))
+            return replacement;
+        return holdInTemp(unaryExpression, super.visit(unaryExpression));
+    }
+
+    // Finds the expressions that need a temp: those repeated where no variable holds their
+    // value. A temp declared before a statement is only in scope in the block holding it, and
+    // an expression of a loop condition is evaluated again on every iteration, so only leaders
+    // of statements directly inside a block get a temp, and only repeats inside that block use it.
+    private class Leaders extends ExpressionRewriter {
+        private final ArrayDeque<BlockStmt> blocks = new ArrayDeque<>();
+        private BlockStmt block;
+
+        @Override
+        public Expression visit(BlockStmt blockStmt) {
+            BlockStmt outer = block;
+            blocks.push(blockStmt);
+            for (Statement statement : blockStmt.getStatements())
+                if (!isDeadAssignment(statement)) {
+                    block = blockStmt;
+                    statement.accept(this);
+                }
+            blocks.pop();
+            block = outer;
+            return null;
+        }
+
+        @Override
+        public Expression visit(ConditionalStmt conditionalStmt) {
+            conditionalStmt.getCondition().accept(this);
+            BlockStmt outer = block;
+            block = null;
+            conditionalStmt.getThenBody().accept(this);
+            if (conditionalStmt.getElseBody() != null)
+                conditionalStmt.getElseBody().accept(this);
+            block = outer;
+            return null;
+        }
+
+        @Override
+        public Expression visit(LoopStmt loopStmt) {
+            BlockStmt outer = block;
+            block = null;
+            loopStmt.getCondition().accept(this);
+            loopStmt.getBody().accept(this);
+            block = outer;
+            return null;
+        }
+
+        // Returns whether the expression is replaced as a whole, leaving its operands alone.
+        private boolean isReplaced(Expression expression) {
+            Value value = builder.getValue(expression);
+            if (value == null || SideEffects.hasSideEffects(expression))
+                return false;
+            if (value.resolve() == value) {
+                if (block != null)
+                    leaderBlocks.putIfAbsent(value, block);
+                return false;
+            }
+            if (replaced(expression, null) != null)
+                return true;
+            Value leader = IrFunction.stripCopies(value);
+            if (!blocks.contains(leaderBlocks.get(leader)))
+                return false;
+            sharedLeaders.add(leader);
+            return true;
+        }
+
+        @Override
+        public Expression visit(BinaryExpression binaryExpression) {
+            return isReplaced(binaryExpression) ? binaryExpression : super.visit(binaryExpression);
+        }
+
+        @Override
+        public Expression visit(UnaryExpression unaryExpression) {
+            return isReplaced(unaryExpression) ? unaryExpression : super.visit(unaryExpression);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package main.ir;
+
+import main.ast.nodes.declaration.VariableDeclaration;
+import main.ast.nodes.statement.*;
+import main.ast.types.Type;
+import main.visitor.Visitor;
+
+import java.util.*;
+
+// Counts the declarations of every local name in a function body and remembers their types.
+class LocalDeclarations extends Visitor<Void> {
+    final HashMap<String, Integer> counts = new HashMap<>();
+    final HashMap<String, Type> types = new HashMap<>();
+
+    void declare(VariableDeclaration variableDeclaration) {
+        String name = variableDeclaration.getVarName().getName();
+        counts.merge(name, 1, Integer::sum);
+        types.put(name, variableDeclaration.getVarType());
+    }
+
+    @Override
+    public Void visit(VariableDeclaration variableDeclaration) {
+        declare(variableDeclaration);
+        return null;
+    }
+
+    @Override
+    public Void visit(BlockStmt blockStmt) {
+        for (Statement statement : blockStmt.getStatements())
+            statement.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visit(ConditionalStmt conditionalStmt) {
+        conditionalStmt.getThenBody().accept(this);
+        if (conditionalStmt.getElseBody() != null)
+            conditionalStmt.getElseBody().accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visit(LoopStmt loopStmt) {
+        loopStmt.getBody().accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visit(VarDecStmt varDecStmt) {
+        for (VariableDeclaration variableDeclaration : varDecStmt.getVars())
+            variableDeclaration.accept(this);
+        return null;
+    }
+}
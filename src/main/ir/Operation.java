@@ -0,0 +1,110 @@
+package main.ir;
+
+import main.ast.types.Type;
+
+import java.util.*;
+
+// A three-address operation. Every variable assignment is a COPY that names its variable, so the
+// versions of a variable are its PARAM, COPY and PHI operations. Reads of lists, struct fields
+// and calls are OPAQUE: they are never taken to equal any other value.
+public class Operation extends Value {
+    public enum Kind { PARAM, COPY, PHI, BINARY, UNARY, OPAQUE, BRANCH, JUMP, RETURN }
+
+    private final int id;
+    private final Kind kind;
+    private final String opcode;
+    private final String variable;
+    private final ArrayList<Value> operands = new ArrayList<>();
+    private final boolean sideEffects;
+    private BasicBlock block;
+    private boolean removed = false;
+
+    public Operation(int id, Kind kind, String opcode, String variable, Type type, boolean sideEffects) {
+        super(type);
+        this.id = id;
+        this.kind = kind;
+        this.opcode = opcode;
+        this.variable = variable;
+        this.sideEffects = sideEffects;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getOpcode() {
+        return opcode;
+    }
+
+    public String getVariable() {
+        return variable;
+    }
+
+    public ArrayList<Value> getOperands() {
+        return operands;
+    }
+
+    public void addOperand(Value operand) {
+        operands.add(operand);
+    }
+
+    public boolean hasSideEffects() {
+        return sideEffects || kind == Kind.BRANCH || kind == Kind.JUMP || kind == Kind.RETURN;
+    }
+
+    public boolean isVersion() {
+        return kind == Kind.PARAM || kind == Kind.COPY || kind == Kind.PHI;
+    }
+
+    public BasicBlock getBlock() {
+        return block;
+    }
+
+    public void setBlock(BasicBlock block) {
+        this.block = block;
+    }
+
+    public boolean isRemoved() {
+        return removed;
+    }
+
+    public void setRemoved(boolean removed) {
+        this.removed = removed;
+    }
+
+    @Override
+    public void replaceWith(Value value) {
+        super.replaceWith(value);
+        removed = true;
+    }
+
+    @Override
+    public String getName() {
+        return "%" + id;
+    }
+
+    @Override
+    public String toString() {
+        var text = new StringBuilder();
+        if (kind != Kind.BRANCH && kind != Kind.JUMP && kind != Kind.RETURN)
+            text.append(getName()).append(": ").append(getTypeName(getType())).append(" = ");
+        text.append(opcode);
+        ArrayList<String> names = new ArrayList<>();
+        for (int i = 0; i < operands.size(); i++) {
+            String name = operands.get(i).resolve().getName();
+            names.add(kind == Kind.PHI ? block.getPredecessors().get(i).getName() + ": " + name : name);
+        }
+        if (kind == Kind.BRANCH || kind == Kind.JUMP)
+            for (BasicBlock successor : block.getSuccessors())
+                names.add(successor.getName());
+        if (!names.isEmpty())
+            text.append(kind == Kind.PHI ? " [" : " ").append(String.join(", ", names)).append(kind == Kind.PHI ? "]" : "");
+        if (variable != null)
+            text.append("  ; ").append(variable);
+        return text.toString();
+    }
+}
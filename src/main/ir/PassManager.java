@@ -0,0 +1,54 @@
+package main.ir;
+
+import main.CompilerOptions;
+import main.ast.nodes.Program;
+import main.ast.nodes.declaration.FunctionDeclaration;
+import main.ast.nodes.declaration.VariableDeclaration;
+import main.ast.nodes.statement.Statement;
+import main.ir.passes.*;
+
+import java.util.ArrayList;
+
+// Runs the configured passes over every function and main. Each pass lowers the current AST of
+// the function into SSA form, and what it finds is written back before the next pass lowers the
+// function again, so the CodeGenerator keeps compiling from the AST. The SSA form is internal to
+// this package and the passes: nothing outside them sees it, apart from --dump-ir, which lowers
+// the function again after the write-back so it shows only what was kept.
+public class PassManager {
+    private final CompilerOptions options;
+    private int tempCount = 0;
+
+    public PassManager(CompilerOptions options) {
+        this.options = options;
+    }
+
+    public void run(Program program) {
+        for (FunctionDeclaration functionDeclaration : program.getFunctions())
+            optimize(functionDeclaration.getFunctionName().getName(), functionDeclaration.getBody(),
+                    functionDeclaration.getArgs());
+        optimize("main", program.getMain().getBody(), new ArrayList<>());
+    }
+
+    private void optimize(String name, Statement body, ArrayList<VariableDeclaration> args) {
+        for (CompilerOptions.OptimizationPass optimizationPass : options.getOptimizationPasses()) {
+            IrBuilder builder = new IrBuilder(name);
+            IrFunction function = builder.build(body, args);
+            createPass(optimizationPass).run(function);
+            IrWriteBack writeBack = new IrWriteBack(builder, tempCount);
+            writeBack.rewrite(body);
+            tempCount = writeBack.getTempCount();
+            if (options.isDumpIr()) {
+                System.out.println("\n; after " + optimizationPass.name().toLowerCase().replace('_', '-'));
+                System.out.print(new IrBuilder(name).build(body, args));
+            }
+        }
+    }
+
+    private Pass createPass(CompilerOptions.OptimizationPass optimizationPass) {
+        switch (optimizationPass) {
+            case GVN: return new GlobalValueNumbering();
+            case COPY_PROP: return new CopyPropagation();
+            default: return new DeadCodeElimination();
+        }
+    }
+}
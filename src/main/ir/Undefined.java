@@ -0,0 +1,15 @@
+package main.ir;
+
+import main.ast.types.NoType;
+
+// What a variable holds where it is out of scope or not declared on every path.
+public class Undefined extends Value {
+    public Undefined() {
+        super(new NoType());
+    }
+
+    @Override
+    public String getName() {
+        return "undef";
+    }
+}
@@ -0,0 +1,51 @@
+package main.ir;
+
+import main.ast.types.NoType;
+import main.ast.types.Type;
+import main.ast.types.primitives.*;
+
+// A value of the SSA form. Passes never rewrite the operands of an operation in place: a value
+// found to equal another one is pointed at it, and resolve() follows those links to the value
+// that is left.
+public abstract class Value {
+    private final Type type;
+    private Value replacement;
+
+    public Value(Type type) {
+        this.type = type;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public Value getReplacement() {
+        return replacement;
+    }
+
+    public void replaceWith(Value value) {
+        if (value.resolve() != this)
+            this.replacement = value;
+    }
+
+    public Value resolve() {
+        Value value = this;
+        while (value.replacement != null)
+            value = value.replacement;
+        return value;
+    }
+
+    public abstract String getName();
+
+    public static String getTypeName(Type type) {
+        if (type instanceof IntType)
+            return "int";
+        if (type instanceof BoolType)
+            return "bool";
+        if (type instanceof VoidType)
+            return "void";
+        if (type instanceof NoType)
+            return "?";
+        return "ref";
+    }
+}
@@ -0,0 +1,16 @@
+package main.ir.passes;
+
+import main.ir.*;
+
+// Points every copy at the value it copies, so reads of a variable that only passes another
+// value along become reads of that value.
+public class CopyPropagation implements Pass {
+    @Override
+    public void run(IrFunction function) {
+        for (BasicBlock block : function.getBlocks())
+            for (Operation operation : block.getOperations())
+                if (operation.getKind() == Operation.Kind.COPY && !operation.isRemoved())
+                    operation.replaceWith(operation.getOperands().get(0));
+        function.removeTrivialPhis();
+    }
+}
@@ -0,0 +1,32 @@
+package main.ir.passes;
+
+import main.ir.*;
+
+import java.util.*;
+
+// Marks the operations that side effects, branches and returns depend on and removes the rest.
+public class DeadCodeElimination implements Pass {
+    @Override
+    public void run(IrFunction function) {
+        HashSet<Operation> live = new HashSet<>();
+        ArrayDeque<Operation> worklist = new ArrayDeque<>();
+        for (BasicBlock block : function.getBlocks())
+            for (Operation operation : block.getOperations())
+                if (operation.hasSideEffects() && !operation.isRemoved() && live.add(operation))
+                    worklist.push(operation);
+        while (!worklist.isEmpty())
+            for (Value operand : worklist.pop().getOperands()) {
+                Value value = operand.resolve();
+                if (value instanceof Operation && live.add((Operation) value))
+                    worklist.push((Operation) value);
+            }
+        for (BasicBlock block : function.getBlocks()) {
+            for (Operation phi : block.getPhis())
+                if (!live.contains(phi))
+                    phi.setRemoved(true);
+            for (Operation operation : block.getOperations())
+                if (!live.contains(operation))
+                    operation.setRemoved(true);
+        }
+    }
+}
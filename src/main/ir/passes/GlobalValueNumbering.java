@@ -0,0 +1,111 @@
+package main.ir.passes;
+
+import main.ast.types.primitives.*;
+import main.ir.*;
+
+import java.util.*;
+
+// Walks the dominator tree with a table of the expressions computed on the way down, so an
+// operation that repeats one computed in a dominating block is replaced by it. Operands are
+// numbered through copies, operations on constants are folded and the operands of commutative
+// operators are ordered. Phis whose operands all have one number are replaced by it.
+public class GlobalValueNumbering implements Pass {
+    private static final Set<String> COMMUTATIVE = Set.of("add", "mult", "and", "or", "eq");
+
+    private final HashMap<String, Value> table = new HashMap<>();
+    private IrFunction function;
+
+    @Override
+    public void run(IrFunction function) {
+        this.function = function;
+        HashMap<BasicBlock, ArrayList<BasicBlock>> children = function.getDominatorTree();
+        ArrayDeque<Object> stack = new ArrayDeque<>();
+        stack.push(function.getEntry());
+        while (!stack.isEmpty()) {
+            Object top = stack.pop();
+            if (top instanceof ArrayList) {
+                for (Object key : (ArrayList<?>) top)
+                    table.remove(key);
+                continue;
+            }
+            BasicBlock block = (BasicBlock) top;
+            ArrayList<String> added = new ArrayList<>();
+            for (Operation phi : block.getPhis())
+                if (!phi.isRemoved())
+                    number(phi, added);
+            for (Operation operation : block.getOperations())
+                if (!operation.isRemoved()
+                        && (operation.getKind() == Operation.Kind.BINARY || operation.getKind() == Operation.Kind.UNARY))
+                    number(operation, added);
+            stack.push(added);
+            for (BasicBlock child : children.get(block))
+                stack.push(child);
+        }
+        function.removeTrivialPhis();
+    }
+
+    private static Value valueNumber(Value value) {
+        return IrFunction.stripCopies(value);
+    }
+
+    private void number(Operation operation, ArrayList<String> added) {
+        ArrayList<Value> operands = new ArrayList<>();
+        for (Value operand : operation.getOperands())
+            operands.add(valueNumber(operand));
+        if (operation.getKind() == Operation.Kind.PHI) {
+            if (new HashSet<>(operands).size() == 1 && !operands.contains(operation)) {
+                operation.replaceWith(operands.get(0));
+                return;
+            }
+        } else {
+            Constant folded = fold(operation.getOpcode(), operands);
+            if (folded != null) {
+                operation.replaceWith(folded);
+                return;
+            }
+        }
+        ArrayList<String> names = new ArrayList<>();
+        for (Value operand : operands)
+            names.add(operand.getName());
+        if (COMMUTATIVE.contains(operation.getOpcode()))
+            Collections.sort(names);
+        String key = operation.getOpcode() + " " + String.join(",", names);
+        if (operation.getKind() == Operation.Kind.PHI)
+            key += " " + operation.getBlock().getName();
+        Value leader = table.get(key);
+        if (leader != null)
+            operation.replaceWith(leader);
+        else {
+            table.put(key, operation);
+            added.add(key);
+        }
+    }
+
+    // Division by zero is left to throw at run time.
+    private Constant fold(String opcode, ArrayList<Value> operands) {
+        for (Value operand : operands)
+            if (!(operand instanceof Constant))
+                return null;
+        int first = ((Constant) operands.get(0)).getConstant();
+        if (operands.size() == 1) {
+            switch (opcode) {
+                case "minus": return function.getConstant(new IntType(), -first);
+                case "not": return function.getConstant(new BoolType(), first == 0 ? 1 : 0);
+                default: return null;
+            }
+        }
+        int second = ((Constant) operands.get(1)).getConstant();
+        switch (opcode) {
+            case "add": return function.getConstant(new IntType(), first + second);
+            case "sub": return function.getConstant(new IntType(), first - second);
+            case "mult": return function.getConstant(new IntType(), first * second);
+            case "div": return second == 0 ? null : function.getConstant(new IntType(), first / second);
+            case "gt": return function.getConstant(new BoolType(), first > second ? 1 : 0);
+            case "lt": return function.getConstant(new BoolType(), first < second ? 1 : 0);
+            case "eq": return function.getConstant(new BoolType(), first == second ? 1 : 0);
+            case "and": return function.getConstant(new BoolType(), first != 0 && second != 0 ? 1 : 0);
+            case "or": return function.getConstant(new BoolType(), first != 0 || second != 0 ? 1 : 0);
+            default: return null;
+        }
+    }
+}
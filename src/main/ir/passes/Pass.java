@@ -0,0 +1,7 @@
+package main.ir.passes;
+
+import main.ir.IrFunction;
+
+public interface Pass {
+    void run(IrFunction function);
+}
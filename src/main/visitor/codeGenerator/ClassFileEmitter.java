@@ -0,0 +1,218 @@
+package main.visitor.codeGenerator;
+
+import jas.*;
+
+import java.io.*;
+import java.util.*;
+
+// Builds class files in memory with the jas class-file writer that ships inside jasmin.jar,
+// so the generated code never goes through Jasmin text or a separate assembler process.
+public class ClassFileEmitter implements CodeEmitter {
+    private static final HashMap<String, Integer> opcodes = new HashMap<>();
+    private static final HashMap<String, Integer> arrayTypes = new HashMap<>();
+
+    static {
+        for (int opcode = 0; opcode < RuntimeConstants.opcNames.length; opcode++)
+            if (RuntimeConstants.opcNames[opcode] != null) // names are spelled "opc_<mnemonic>"
+                opcodes.put(RuntimeConstants.opcNames[opcode].substring(4), opcode);
+        arrayTypes.put("boolean", RuntimeConstants.T_BOOLEAN);
+        arrayTypes.put("char", RuntimeConstants.T_CHAR);
+        arrayTypes.put("float", RuntimeConstants.T_FLOAT);
+        arrayTypes.put("double", RuntimeConstants.T_DOUBLE);
+        arrayTypes.put("byte", RuntimeConstants.T_BYTE);
+        arrayTypes.put("short", RuntimeConstants.T_SHORT);
+        arrayTypes.put("int", RuntimeConstants.T_INT);
+        arrayTypes.put("long", RuntimeConstants.T_LONG);
+    }
+
+    private ClassEnv classEnv;
+    private String className;
+    private jas.Method method;
+    private short methodAccess;
+    private CodeAttr code;
+    private Catchtable catchtable;
+    private HashMap<Label, jas.Label> labels;
+    private int errors = 0;
+    private final LinkedHashMap<String, byte[]> classFiles = new LinkedHashMap<>();
+
+    @Override
+    public int getErrors() {
+        return errors;
+    }
+
+    @Override
+    public void createClass(String name) {
+        this.classEnv = new ClassEnv();
+        this.className = name;
+    }
+
+    @Override
+    public void addInstruction(Instruction instruction) {
+        try {
+            if (instruction.getKind() == Instruction.Kind.DIRECTIVE)
+                addDirective(getWords(instruction));
+            else if (instruction.isLabel())
+                code.addInsn(getLabel(instruction.getLabel()));
+            else
+                code.addInsn(makeInsn(instruction));
+        } catch (jasError | RuntimeException e) {
+            errors++;
+            System.out.println(className + ".class: Error - " + e.getMessage() + " in \"" + instruction + "\"");
+        }
+    }
+
+    @Override
+    public void closeClass() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream stream = new DataOutputStream(bytes)) {
+            classEnv.write(stream);
+            classFiles.put(className, bytes.toByteArray());
+        } catch (IOException | jasError e) {
+            errors++;
+            System.out.println(className + ".class: Error - " + e.getMessage());
+        }
+    }
+
+    @Override
+    public LinkedHashMap<String, byte[]> getClassFiles() {
+        return classFiles;
+    }
+
+    private short accessFlags(String[] words, int from, int to) {
+        int flags = 0;
+        for (int i = from; i < to; i++) {
+            switch (words[i]) {
+                case "public": flags |= RuntimeConstants.ACC_PUBLIC; break;
+                case "private": flags |= RuntimeConstants.ACC_PRIVATE; break;
+                case "protected": flags |= RuntimeConstants.ACC_PROTECTED; break;
+                case "static": flags |= RuntimeConstants.ACC_STATIC; break;
+                case "final": flags |= RuntimeConstants.ACC_FINAL; break;
+                case "abstract": flags |= RuntimeConstants.ACC_ABSTRACT; break;
+                case "interface": flags |= RuntimeConstants.ACC_INTERFACE; break;
+                case "synthetic": flags |= RuntimeConstants.ACC_SYNTHETIC; break;
+                case "bridge": flags |= RuntimeConstants.ACC_BRIDGE; break;
+            }
+        }
+        return (short) flags;
+    }
+
+    private String[] getWords(Instruction directive) {
+        String[] words = new String[directive.getOperands().size() + 1];
+        words[0] = directive.getOpcode();
+        for (int i = 1; i < words.length; i++)
+            words[i] = (String) directive.getOperand(i - 1);
+        return words;
+    }
+
+    private void addDirective(String[] words) throws jasError {
+        int last = words.length - 1;
+        switch (words[0]) {
+            case ".class":
+                classEnv.setClass(new ClassCP(words[last]));
+                classEnv.setClassAccess((short) (accessFlags(words, 1, last) | RuntimeConstants.ACC_SUPER));
+                break;
+            case ".interface":
+                classEnv.setClass(new ClassCP(words[last]));
+                classEnv.setClassAccess((short) (accessFlags(words, 1, last) | RuntimeConstants.ACC_INTERFACE
+                        | RuntimeConstants.ACC_ABSTRACT));
+                break;
+            case ".super":
+                classEnv.setSuperClass(new ClassCP(words[1]));
+                break;
+            case ".implements":
+                classEnv.addInterface(new ClassCP(words[1]));
+                break;
+            case ".field":
+                classEnv.addField(new Var(accessFlags(words, 1, last - 1), new AsciiCP(words[last - 1]),
+                        new AsciiCP(words[last]), null));
+                break;
+            case ".method":
+                String signature = words[last];
+                int argsStart = signature.indexOf('(');
+                methodAccess = accessFlags(words, 1, last);
+                method = new jas.Method(methodAccess, new AsciiCP(signature.substring(0, argsStart)),
+                        new AsciiCP(signature.substring(argsStart)));
+                code = new CodeAttr();
+                catchtable = null;
+                labels = new HashMap<>();
+                break;
+            case ".limit":
+                if (words[1].equals("stack"))
+                    code.setStackSize((short) Integer.parseInt(words[2]));
+                else
+                    code.setVarSize((short) Integer.parseInt(words[2]));
+                break;
+            case ".catch":
+                // .catch <class> from <label> to <label> using <label>
+                if (catchtable == null) {
+                    catchtable = new Catchtable();
+                    code.setCatchtable(catchtable);
+                }
+                CP exception = words[1].equals("all") ? null : new ClassCP(words[1]);
+                catchtable.addEntry(getLabel(new Label(words[3])), getLabel(new Label(words[5])),
+                        getLabel(new Label(words[7])), exception);
+                break;
+            case ".end":
+                if (words[1].equals("method")) {
+                    boolean isAbstract = (methodAccess & RuntimeConstants.ACC_ABSTRACT) != 0;
+                    method.setCode(isAbstract ? null : code, null);
+                    classEnv.addMethod(method);
+                    method = null;
+                    code = null;
+                }
+                break;
+            default: // .source, .var, .line, .signature and friends carry no semantics we need
+                break;
+        }
+    }
+
+    private jas.Label getLabel(Label label) {
+        return labels.computeIfAbsent(label, l -> new jas.Label(l.getName()));
+    }
+
+    private Insn makeInsn(Instruction instruction) throws jasError {
+        Integer opcode = opcodes.get(instruction.getOpcode());
+        if (opcode == null)
+            throw new jasError("unknown instruction " + instruction.getOpcode());
+        Object operand = instruction.getOperand(0);
+        if (operand == null)
+            return new Insn(opcode);
+        switch (instruction.getOpcode()) {
+            case "ldc":
+            case "ldc_w":
+                if (operand instanceof String)
+                    return new Insn(opcode, new StringCP((String) operand));
+                return new Insn(opcode, new IntegerCP((Integer) operand));
+            case "iinc":
+                return NarrowIinc.narrow(new IincInsn((Integer) operand, (Integer) instruction.getOperand(1), false));
+            case "newarray":
+                return new Insn(opcode, arrayTypes.get((String) operand), false);
+            case "new":
+            case "checkcast":
+            case "instanceof":
+            case "anewarray":
+                return new Insn(opcode, new ClassCP((String) operand));
+            case "getfield":
+            case "putfield":
+            case "getstatic":
+            case "putstatic":
+                MemberRef field = instruction.getMember();
+                return new Insn(opcode, new FieldCP(field.getOwner(), field.getName(), field.getDescriptor()));
+            case "invokevirtual":
+            case "invokespecial":
+            case "invokestatic":
+                return new Insn(opcode, makeMethodCP(instruction.getMember(), false));
+            case "invokeinterface":
+                return new InvokeinterfaceInsn(makeMethodCP(instruction.getMember(), true),
+                        (Integer) instruction.getOperand(1));
+        }
+        if (operand instanceof Label)
+            return new Insn(opcode, getLabel((Label) operand), 0);
+        return new Insn(opcode, (Integer) operand, false);
+    }
+
+    private CP makeMethodCP(MemberRef method, boolean isInterface) {
+        return isInterface ? new InterfaceCP(method.getOwner(), method.getName(), method.getDescriptor())
+                : new MethodCP(method.getOwner(), method.getName(), method.getDescriptor());
+    }
+}
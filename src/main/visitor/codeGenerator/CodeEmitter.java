@@ -0,0 +1,12 @@
+package main.visitor.codeGenerator;
+
+import java.util.LinkedHashMap;
+
+public interface CodeEmitter {
+    void createClass(String name);
+    void addInstruction(Instruction instruction);
+    void closeClass();
+
+    LinkedHashMap<String, byte[]> getClassFiles();
+    int getErrors();
+}
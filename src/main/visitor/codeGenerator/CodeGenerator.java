@@ -9,53 +9,98 @@ import main.ast.nodes.expression.values.primitive.*;
 import main.ast.nodes.statement.*;
 import main.ast.types.*;
 import main.ast.types.primitives.*;
+import main.CompilerOptions;
 import main.symbolTable.*;
 import main.symbolTable.exceptions.*;
 import main.symbolTable.items.FunctionSymbolTableItem;
 import main.symbolTable.items.StructSymbolTableItem;
+import main.symbolTable.items.VariableSymbolTableItem;
 import main.visitor.Visitor;
+import main.visitor.optimizer.ReadOnlyListArgs;
+import main.visitor.optimizer.SideEffects;
+import main.visitor.optimizer.StructEscapeAnalyzer;
 import main.visitor.type.ExpressionTypeChecker;
 import parsers.CmmParser;
 
 import java.io.*;
 import java.util.*;
 
-public class CodeGenerator extends Visitor<String> {
+public class CodeGenerator extends Visitor<InstructionList> {
     ExpressionTypeChecker expressionTypeChecker = new ExpressionTypeChecker();
+    private final boolean unboxedPrimitives;
+    private final boolean shortCircuit;
+    private final boolean strengthReduction;
+    private final CompilerOptions.Backend backend;
+    private final EnumSet<CompilerOptions.PeepholeRewrite> peepholeRewrites;
+    private final boolean treeShaking;
     private String outputPath;
-    private FileWriter currentFile;
+    private CodeEmitter emitter;
+    private PeepholeOptimizer peepholeOptimizer;
+    private boolean isFileOpen = false;
+    private Type currentReturnType = new VoidType();
+    private FunctionDeclaration currentFunction;
+    private Label currentEntryLabel;
 
     private Boolean isInStruct = false;
     private Boolean isInStructInit = false;
     private String currentStructName = "";
-    private ArrayList<String> arr = new ArrayList<>();
+    private final HashMap<String, Integer> slots = new HashMap<>();
+    private LocalAllocator localAllocator;
     private int label = 0;
+    private final LinkedHashSet<String> referencedFunctions = new LinkedHashSet<>();
+    private final HashMap<String, FptrType> fptrInterfaces = new HashMap<>();
+    private final ArrayList<String> fptrInterfaceOrder = new ArrayList<>();
+    private final HashMap<String, String> fptrInterfaceNames = new HashMap<>();
+    private final HashMap<String, StructDeclaration> structDeclarations = new HashMap<>();
+    private final HashSet<String> usedListClasses = new HashSet<>();
+    private final HashMap<String, HashSet<Integer>> readOnlyListArgs = new HashMap<>();
+    private HashSet<String> replacedStructs = new HashSet<>();
+
+    public CodeGenerator(CompilerOptions options) {
+        this.unboxedPrimitives = options.isUnboxedPrimitives();
+        this.shortCircuit = options.isShortCircuit();
+        this.strengthReduction = options.isStrengthReduction();
+        this.backend = options.getBackend();
+        this.peepholeRewrites = options.getPeepholeRewrites();
+        this.treeShaking = options.isTreeShaking();
+    }
 
-    private String getFreshLabel() {
-        return "label" + label++;
+    public CodeEmitter getEmitter() {
+        return emitter;
     }
 
-    private void copyFile(String toBeCopied, String toBePasted) {
-        try {
-            File readingFile = new File(toBeCopied);
-            File writingFile = new File(toBePasted);
-            InputStream readingFileStream = new FileInputStream(readingFile);
-            OutputStream writingFileStream = new FileOutputStream(writingFile);
-            byte[] buffer = new byte[1024];
-            int readLength;
-            while ((readLength = readingFileStream.read(buffer)) > 0)
-                writingFileStream.write(buffer, 0, readLength);
-            readingFileStream.close();
-            writingFileStream.close();
+    public PeepholeOptimizer getPeepholeOptimizer() {
+        return peepholeOptimizer;
+    }
+
+    private Label getFreshLabel() {
+        return new Label("label" + label++);
+    }
+
+    private void addRuntimeClass(String jasminPath, String name) {
+        try (BufferedReader reader = new BufferedReader(new FileReader(jasminPath))) {
+            emitter.createClass(name);
+            String line;
+            boolean isInStackMap = false;
+            while ((line = reader.readLine()) != null) {
+                Instruction instruction = Instruction.parse(line);
+                if (instruction == null)
+                    continue;
+                // stack map frames only matter for class versions neither backend produces
+                if (instruction.isDirective(".stack"))
+                    isInStackMap = true;
+                if (!isInStackMap)
+                    emitter.addInstruction(instruction);
+                if (instruction.isEnd("stack"))
+                    isInStackMap = false;
+            }
+            emitter.closeClass();
         } catch (IOException e) {//unreachable
         }
     }
 
     private void prepareOutputFolder() {
         this.outputPath = "output/";
-        String jasminPath = "utilities/jarFiles/jasmin.jar";
-        String listClassPath = "utilities/codeGenerationUtilityClasses/List.j";
-        String fptrClassPath = "utilities/codeGenerationUtilityClasses/Fptr.j";
         try {
             File directory = new File(this.outputPath);
             File[] files = directory.listFiles();
@@ -66,55 +111,70 @@ public class CodeGenerator extends Visitor<String> {
         } catch (SecurityException e) {//unreachable
 
         }
-        copyFile(jasminPath, this.outputPath + "jasmin.jar");
-        copyFile(listClassPath, this.outputPath + "List.j");
-        copyFile(fptrClassPath, this.outputPath + "Fptr.j");
+        if (backend == CompilerOptions.Backend.JASMIN)
+            emitter = new MethodLimitEmitter(new JasminEmitter(this.outputPath));
+        else
+            emitter = new MethodLimitEmitter(new ClassFileEmitter());
+        if (!peepholeRewrites.isEmpty()) {
+            peepholeOptimizer = new PeepholeOptimizer(emitter, peepholeRewrites);
+            emitter = peepholeOptimizer;
+        }
+    }
+
+    // With tree shaking only the list classes the program uses are added. They all implement
+    // Copyable, through which List copies its nested lists, so it comes with any of them.
+    private void addRuntimeClasses() {
+        String runtimeClassesPath = "utilities/codeGenerationUtilityClasses/";
+        if (!usedListClasses.isEmpty())
+            usedListClasses.add("Copyable");
+        for (String runtimeClass : new String[]{"Copyable", "List", "IntList", "BoolList"})
+            if (!treeShaking || usedListClasses.contains(runtimeClass))
+                addRuntimeClass(runtimeClassesPath + runtimeClass + ".j", runtimeClass);
     }
 
     private void createFile(String name) {
-        try {
-            String path = this.outputPath + name + ".j";
-            File file = new File(path);
-            file.createNewFile();
-            this.currentFile = new FileWriter(path);
-        } catch (IOException e) {//never reached
-        }
+        if (this.isFileOpen)
+            emitter.closeClass();
+        emitter.createClass(name);
+        this.isFileOpen = true;
     }
 
-    private void addCommand(String command) {
-        try {
-            command = String.join("\n\t\t", command.split("\n"));
-            if (command.startsWith("Label_"))
-                this.currentFile.write("\t" + command + "\n");
-            else if (command.startsWith("."))
-                this.currentFile.write(command + "\n");
-            else
-                this.currentFile.write("\t\t" + command + "\n");
-            this.currentFile.flush();
-        } catch (IOException e) {//unreachable
+    private void addCommand(String opcode, Object... operands) {
+        emitter.addInstruction(Instruction.of(opcode, operands));
+    }
 
-        }
+    private void addCommand(Instruction instruction) {
+        emitter.addInstruction(instruction);
+    }
+
+    private void addDirective(String directive, String... words) {
+        emitter.addInstruction(Instruction.directive(directive, words));
+    }
+
+    private void addLabel(Label label) {
+        emitter.addInstruction(Instruction.label(label));
+    }
+
+    private void addCommand(InstructionList code) {
+        for (Instruction instruction : code)
+            emitter.addInstruction(instruction);
     }
 
     private void addStaticMainMethod(Statement main) {
-        addCommand(".method public static main([Ljava/lang/String;)V");
-        addCommand(".limit stack 128");
-        addCommand(".limit locals 128");
-        addCommand("new Main");
+        addDirective(".method", "public", "static", "main([Ljava/lang/String;)V");
+        addCommand("new", "Main");
         addCommand("dup");
-        addCommand("invokespecial Main/<init>()V");
+        addCommand("invokespecial", new MemberRef("Main", "<init>", "()V"));
         addCommand("astore_0");
         main.accept(this);
         addCommand("return");
-        addCommand(".end method");
+        addDirective(".end", "method");
     }
 
+    // Holds the slot of the local each name refers to at the current point, which changes when
+    // a later declaration reuses the name in another scope.
     private int slotOf(String identifier) {
-        if (arr.contains(identifier)) {
-            return arr.indexOf(identifier) + 1;
-        }
-        arr.add(identifier);
-        return arr.size();
+        return slots.get(identifier);
     }
 
     private String getJasminType(Type type) {
@@ -123,40 +183,82 @@ public class CodeGenerator extends Visitor<String> {
         if (type instanceof IntType)
             return "Ljava/lang/Integer;";
         if (type instanceof ListType)
-            return "LList;";
+            return "L" + getListClass(type) + ";";
         if (type instanceof FptrType)
-            return "LFptr;";
+            return "L" + getFptrInterface((FptrType) type) + ";";
         if (type instanceof StructType)
             return "L" + ((StructType) type).getStructName().getName() + ";";
         return "V";
     }
 
-    private void setHeaders() {
-        addCommand(".limit stack 128");
-        addCommand(".limit locals 128");
-    }
-
     private void setFooter() {
         addCommand("return");
-        addCommand(".end method");
+        addDirective(".end", "method");
     }
 
-    private String primitiveToNone(Type var) {
+    private InstructionList primitiveToNone(Type var) {
         if (var instanceof IntType) {
-            return "invokestatic java/lang/Integer/valueOf(I)Ljava/lang/Integer;";
+            return new InstructionList().add("invokestatic", new MemberRef("java/lang/Integer", "valueOf", "(I)Ljava/lang/Integer;"));
         } else if (var instanceof BoolType) {
-            return "invokestatic java/lang/Boolean/valueOf(Z)Ljava/lang/Boolean;";
+            return new InstructionList().add("invokestatic", new MemberRef("java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;"));
         }
-        return "\n";
+        return new InstructionList();
     }
 
-    private String noneToPrimitive(Type var) {
+    private InstructionList noneToPrimitive(Type var) {
         if (var instanceof IntType) {
-            return "invokevirtual java/lang/Integer/intValue()I";
+            return new InstructionList().add("invokevirtual", new MemberRef("java/lang/Integer", "intValue", "()I"));
         } else if (var instanceof BoolType) {
-            return "invokevirtual java/lang/Boolean/booleanValue()Z\n";
+            return new InstructionList().add("invokevirtual", new MemberRef("java/lang/Boolean", "booleanValue", "()Z"));
+        }
+        return new InstructionList();
+    }
+
+    // In unboxed mode int and bool values live on the stack and in locals as I/Z and are
+    // boxed only when they escape into a generic List or through a function pointer.
+    private boolean isUnboxed(Type type) {
+        return unboxedPrimitives && (type instanceof IntType || type instanceof BoolType);
+    }
+
+    private InstructionList stackToNone(Type type) {
+        return isUnboxed(type) ? primitiveToNone(type) : new InstructionList();
+    }
+
+    private InstructionList noneToStack(Type type) {
+        return isUnboxed(type) ? noneToPrimitive(type) : new InstructionList();
+    }
+
+    private InstructionList stackToPrimitive(Type type) {
+        return isUnboxed(type) ? new InstructionList() : noneToPrimitive(type);
+    }
+
+    private InstructionList primitiveToStack(Type type) {
+        return isUnboxed(type) ? new InstructionList() : primitiveToNone(type);
+    }
+
+    private Instruction loadLocal(int slot, Type type) {
+        return localAccess(isUnboxed(type) ? "iload" : "aload", slot);
+    }
+
+    private Instruction storeLocal(int slot, Type type) {
+        return localAccess(isUnboxed(type) ? "istore" : "astore", slot);
+    }
+
+    private Instruction localAccess(String opcode, int slot) {
+        return slot > 3 ? Instruction.of(opcode, slot) : Instruction.of(opcode + "_" + slot);
+    }
+
+    private void declareLocal(Identifier name, Type type) {
+        try {
+            SymbolTable.top.getItem(VariableSymbolTableItem.START_KEY + name.getName());
+        } catch (ItemNotFoundException e) {
+            VariableSymbolTableItem variableSymbolTableItem = new VariableSymbolTableItem(name);
+            variableSymbolTableItem.setType(type);
+            try {
+                SymbolTable.top.put(variableSymbolTableItem);
+            } catch (ItemAlreadyExistsException e1) {//unreachable
+            }
         }
-        return "\n";
     }
 
     private String getType(Type variableType) {
@@ -167,10 +269,10 @@ public class CodeGenerator extends Visitor<String> {
             return "java/lang/Boolean";
         }
         if (variableType instanceof ListType) {
-            return "List";
+            return getListClass(variableType);
         }
         if (variableType instanceof FptrType) {
-            return "Fptr";
+            return getFptrInterface((FptrType) variableType);
         }
         if (variableType instanceof StructType) {
             StructType struct = (StructType) variableType;
@@ -180,37 +282,48 @@ public class CodeGenerator extends Visitor<String> {
         return "";
     }
 
-    private String cast(Type type) {
+    private InstructionList cast(Type type) {
         if(!Objects.equals(getType(type), ""))
-            return "checkcast " + getType(type);
-        return "";
+            return new InstructionList().add("checkcast", getType(type));
+        return new InstructionList();
     }
 
     @Override
-    public String visit(Program program) {
+    public InstructionList visit(Program program) {
         prepareOutputFolder();
 
+        for (StructDeclaration structDeclaration : program.getStructs())
+            structDeclarations.put(structDeclaration.getStructName().getName(), structDeclaration);
         for (StructDeclaration structDeclaration : program.getStructs()) {
-            arr.clear();
+            slots.clear();
             label = 0;
             structDeclaration.accept(this);
         }
 
         createFile("Main");
-        arr.clear();
+        slots.clear();
         label = 0;
         program.getMain().accept(this);
 
         for (FunctionDeclaration functionDeclaration : program.getFunctions()) {
-            arr.clear();
+            slots.clear();
             label = 0;
             functionDeclaration.accept(this);
         }
+        addMainConstructor();
+        for (String functionName : referencedFunctions)
+            addFunctionClass(functionName);
+        // emitting an interface can find the interfaces of nested fptr types, so the list may grow
+        for (int i = 0; i < fptrInterfaceOrder.size(); i++)
+            addFptrInterface(fptrInterfaceOrder.get(i));
+        emitter.closeClass();
+        isFileOpen = false;
+        addRuntimeClasses();
         return null;
     }
 
     @Override
-    public String visit(StructDeclaration structDeclaration) {
+    public InstructionList visit(StructDeclaration structDeclaration) {
         try {
             String structKey = StructSymbolTableItem.START_KEY + structDeclaration.getStructName().getName();
             StructSymbolTableItem structSymbolTableItem = (StructSymbolTableItem) SymbolTable.root.getItem(structKey);
@@ -219,16 +332,15 @@ public class CodeGenerator extends Visitor<String> {
         }
         createFile(structDeclaration.getStructName().getName());
         currentStructName = structDeclaration.getStructName().getName();
-        addCommand(".class public " + structDeclaration.getStructName().getName());
-        addCommand(".super java/lang/Object");
+        addDirective(".class", "public", structDeclaration.getStructName().getName());
+        addDirective(".super", "java/lang/Object");
 
         isInStruct = true;
         structDeclaration.getBody().accept(this);
         isInStruct = false;
-        addCommand(".method public <init>()V");
-        setHeaders();
+        addDirective(".method", "public", "<init>()V");
         addCommand("aload_0");
-        addCommand("invokespecial java/lang/Object/<init>()V");
+        addCommand("invokespecial", new MemberRef("java/lang/Object", "<init>", "()V"));
         isInStructInit = true;
         structDeclaration.getBody().accept(this);
         isInStructInit = false;
@@ -240,29 +352,35 @@ public class CodeGenerator extends Visitor<String> {
     }
 
     @Override
-    public String visit(FunctionDeclaration functionDeclaration) {
+    public InstructionList visit(FunctionDeclaration functionDeclaration) {
         try {
             String functionKey = FunctionSymbolTableItem.START_KEY + functionDeclaration.getFunctionName().getName();
             FunctionSymbolTableItem functionSymbolTableItem = (FunctionSymbolTableItem) SymbolTable.root.getItem(functionKey);
             SymbolTable.push(functionSymbolTableItem.getFunctionSymbolTable());
         } catch (ItemNotFoundException e) {//unreachable
         }
-        StringBuilder prototype = new StringBuilder(".method public " + functionDeclaration.getFunctionName().getName() + "(");
-        for (VariableDeclaration arg : functionDeclaration.getArgs()) {
-            slotOf(arg.getVarName().getName());
-            prototype.append(getJasminType(arg.getVarType())); // arguments are none primitive!
-        }
-        prototype.append(")").append(getJasminType(functionDeclaration.getReturnType()));
-        addCommand(prototype.toString());
-        setHeaders();
+        replacedStructs = new StructEscapeAnalyzer(structDeclarations)
+                .findReplaceableStructs(functionDeclaration.getBody(), functionDeclaration.getArgs());
+        localAllocator = new LocalAllocator(structDeclarations, replacedStructs, unboxedPrimitives);
+        localAllocator.allocate(functionDeclaration.getBody(), functionDeclaration.getArgs());
+        for (VariableDeclaration arg : functionDeclaration.getArgs())
+            slots.putAll(localAllocator.getSlots(arg));
+        String name = functionDeclaration.getFunctionName().getName();
+        addDirective(".method", "public", name + getMethodDescriptor(getFunctionType(name)));
+        currentReturnType = functionDeclaration.getReturnType();
+        currentFunction = functionDeclaration;
+        currentEntryLabel = getFreshLabel();
+        addLabel(currentEntryLabel);
         functionDeclaration.getBody().accept(this);
+        currentFunction = null;
+        currentReturnType = new VoidType();
         setFooter();
         SymbolTable.pop();
         return null;
     }
 
     @Override
-    public String visit(MainDeclaration mainDeclaration) {
+    public InstructionList visit(MainDeclaration mainDeclaration) {
         try {
             String functionKey = FunctionSymbolTableItem.START_KEY + "main";
             FunctionSymbolTableItem functionSymbolTableItem = (FunctionSymbolTableItem) SymbolTable.root.getItem(functionKey);
@@ -270,115 +388,162 @@ public class CodeGenerator extends Visitor<String> {
         } catch (ItemNotFoundException e) {//unreachable
         }
 
-        addCommand(".class public Main");
-        addCommand(".super java/lang/Object");
-        addCommand(".method public <init>()V");
-        setHeaders();
-        addCommand("aload_0");
-        addCommand("invokespecial java/lang/Object/<init>()V");
-        setFooter();
+        addDirective(".class", "public", "Main");
+        addDirective(".super", "java/lang/Object");
+        replacedStructs = new StructEscapeAnalyzer(structDeclarations)
+                .findReplaceableStructs(mainDeclaration.getBody(), new ArrayList<>());
+        localAllocator = new LocalAllocator(structDeclarations, replacedStructs, unboxedPrimitives);
+        localAllocator.allocate(mainDeclaration.getBody(), new ArrayList<>());
         addStaticMainMethod(mainDeclaration.getBody());
         SymbolTable.pop();
         return null;
     }
 
-    private void setField(VariableDeclaration variableDeclaration, String defaultValue) {
+    private void setField(VariableDeclaration variableDeclaration, InstructionList defaultValue) {
         addCommand("aload_0");
         if (variableDeclaration.getDefaultValue() == null)
             addCommand(defaultValue);
-        else
+        else {
             addCommand(variableDeclaration.getDefaultValue().accept(this));
-        addCommand("putfield " + currentStructName + "/" + variableDeclaration.getVarName().getName() + " " + getJasminType(variableDeclaration.getVarType()));
+        }
+        addCommand("putfield", new MemberRef(currentStructName, variableDeclaration.getVarName().getName(),
+                getFieldType(variableDeclaration.getVarType())));
+    }
+
+    private InstructionList makeList(Type listType) {
+        String listClass = getListClass(listType);
+        if (!listClass.equals("List"))
+            return newObject(listClass);
+        var code = new InstructionList();
+        code.add("new", "List");
+        code.add("dup");
+        code.add(newObject("java/util/ArrayList"));
+        code.add("invokespecial", new MemberRef("List", "<init>", "(Ljava/util/ArrayList;)V"));
+        return code;
+    }
+
+    private InstructionList newObject(String className) {
+        return new InstructionList().add("new", className).add("dup")
+                .add("invokespecial", new MemberRef(className, "<init>", "()V"));
     }
 
-    private String makeList() {
-        var sb = new StringBuilder("\nnew List");
-        sb.append("\ndup");
-        sb.append("\nnew java/util/ArrayList");
-        sb.append("\ndup");
-        sb.append("\ninvokespecial java/util/ArrayList/<init>()V");
-        sb.append("\ninvokespecial List/<init>(Ljava/util/ArrayList;)V");
-        return sb.toString();
+    // In unboxed mode list #int and list #bool are stored in the IntList and BoolList runtime
+    // classes, which keep their elements in an int[] and a bitset and have typed accessors.
+    private String getListClass(Type listType) {
+        Type elementType = ((ListType) listType).getType();
+        String listClass = "List";
+        if (isUnboxed(elementType))
+            listClass = elementType instanceof IntType ? "IntList" : "BoolList";
+        usedListClasses.add(listClass);
+        return listClass;
+    }
+
+    private String getElementAccessor(String listClass) {
+        return listClass.equals("IntList") ? "Int" : "Bool";
+    }
+
+    private InstructionList copyList(Type listType, InstructionList list) {
+        String listClass = getListClass(listType);
+        return new InstructionList().add("new", listClass).add("dup").add(list)
+                .add("invokespecial", new MemberRef(listClass, "<init>", "(L" + listClass + ";)V"));
     }
 
     @Override
-    public String visit(VariableDeclaration variableDeclaration) {
+    public InstructionList visit(VariableDeclaration variableDeclaration) {
         Type variableType = variableDeclaration.getVarType();
         if (isInStruct) {
-            if (variableType instanceof IntType) {
-                addCommand(".field public " + variableDeclaration.getVarName().getName() + " Ljava/lang/Integer;");
-            }
-            if (variableType instanceof BoolType) {
-                addCommand(".field public " + variableDeclaration.getVarName().getName() + " Ljava/lang/Boolean;");
+            if (variableType instanceof IntType || variableType instanceof BoolType) {
+                addDirective(".field", "public", variableDeclaration.getVarName().getName(), getFieldType(variableType));
             }
             if (variableType instanceof ListType) {
-                addCommand(".field public " + variableDeclaration.getVarName().getName() + " LList;");
+                addDirective(".field", "public", variableDeclaration.getVarName().getName(), getJasminType(variableType));
             }
             if (variableType instanceof FptrType) {
-                addCommand(".field public " + variableDeclaration.getVarName().getName() + " LFptr;");
+                addDirective(".field", "public", variableDeclaration.getVarName().getName(), getJasminType(variableType));
             }
             if (variableType instanceof StructType) {
                 StructType struct = (StructType) variableType;
                 String nameStruct = struct.getStructName().getName();
-                addCommand(".field public " + variableDeclaration.getVarName().getName() + " L" + nameStruct + ";");
+                addDirective(".field", "public", variableDeclaration.getVarName().getName(), "L" + nameStruct + ";");
             }
         }
         else if (isInStructInit) {
-            if (variableType instanceof IntType) {
-                setField(variableDeclaration, "ldc 0\n" + primitiveToNone(new IntType()));
-            }
-            if (variableType instanceof BoolType) {
-                setField(variableDeclaration, "ldc 0\n" + primitiveToNone(new BoolType()));
+            if (variableType instanceof IntType || variableType instanceof BoolType) {
+                setField(variableDeclaration, new InstructionList().add("iconst_0").add(primitiveToStack(variableType)));
             }
             if (variableType instanceof ListType) {
-                setField(variableDeclaration, makeList());
+                setField(variableDeclaration, makeList(variableType));
             }
             if (variableType instanceof FptrType) {
-                setField(variableDeclaration, "aconst_null");
+                setField(variableDeclaration, new InstructionList().add("aconst_null"));
             }
             if (variableType instanceof StructType) {
-                setField(variableDeclaration, "new " + ((StructType) variableType).getStructName().getName()
-                        + "\ndup"
-                        + "\ninvokespecial " + ((StructType) variableType).getStructName().getName() + "/<init>()V");
+                setField(variableDeclaration, newObject(((StructType) variableType).getStructName().getName()));
             }
+        } else if (replacedStructs.contains(variableDeclaration.getVarName().getName())) {
+            declareLocal(variableDeclaration.getVarName(), variableType);
+            slots.putAll(localAllocator.getSlots(variableDeclaration));
+            addCommand(initReplacedStruct(variableDeclaration.getVarName().getName(), (StructType) variableType));
         } else {
             if (variableDeclaration.getDefaultValue() != null) {
                 addCommand(variableDeclaration.getDefaultValue().accept(this));
             } else {
-                if (variableType instanceof IntType || variableType instanceof BoolType) {
-                    addCommand("iconst_0");
-                    addCommand(primitiveToNone(variableType));
-                }
-                if (variableType instanceof ListType) {
-                    addCommand(makeList());
-                }
-                if (variableType instanceof FptrType) {
-                    addCommand("aconst_null");
-                }
-                if (variableType instanceof StructType) {
-                    StructType struct = (StructType) variableType;
-                    String nameStruct = struct.getStructName().getName();
-                    addCommand("new " + nameStruct);
-                    addCommand("dup");
-                    addCommand("invokespecial " + nameStruct + "/<init>()V");
-                }
+                addCommand(getDefaultValue(variableType));
             }
+            declareLocal(variableDeclaration.getVarName(), variableType);
+            slots.putAll(localAllocator.getSlots(variableDeclaration));
             var slotNo = slotOf(variableDeclaration.getVarName().getName());
-            addCommand((slotNo > 3 ? "astore " : "astore_") + slotNo);
+            addCommand(storeLocal(slotNo, variableType));
         }
 
         return null;
     }
 
+    private InstructionList getDefaultValue(Type type) {
+        if (type instanceof IntType || type instanceof BoolType)
+            return new InstructionList().add("iconst_0").add(primitiveToStack(type));
+        if (type instanceof ListType)
+            return makeList(type);
+        if (type instanceof FptrType)
+            return new InstructionList().add("aconst_null");
+        if (type instanceof StructType)
+            return newObject(((StructType) type).getStructName().getName());
+        return new InstructionList();
+    }
+
+    // A struct that never escapes its function is not allocated: each of its fields gets a local
+    // slot named by its access path, such as "s.x", and is initialized where the struct would be.
+    private InstructionList initReplacedStruct(String path, StructType type) {
+        var code = new InstructionList();
+        for (VariableDeclaration field : StructEscapeAnalyzer.getFields(structDeclarations.get(type.getStructName().getName()))) {
+            String fieldPath = path + "." + field.getVarName().getName();
+            Type fieldType = field.getVarType();
+            if (replacedStructs.contains(fieldPath)) {
+                code.add(initReplacedStruct(fieldPath, (StructType) fieldType));
+                continue;
+            }
+            if (field.getDefaultValue() != null)
+                code.add(field.getDefaultValue().accept(this));
+            else
+                code.add(getDefaultValue(fieldType));
+            code.add(storeLocal(slotOf(fieldPath), fieldType));
+        }
+        return code;
+    }
+
+    private boolean isReplacedStructField(StructAccess structAccess) {
+        return replacedStructs.contains(StructEscapeAnalyzer.getPath(structAccess.getInstance()));
+    }
+
     @Override
-    public String visit(SetGetVarDeclaration setGetVarDeclaration) {
+    public InstructionList visit(SetGetVarDeclaration setGetVarDeclaration) {
         return null;
     }
 
     private boolean isInAssignmentStmt = false;
 
     @Override
-    public String visit(AssignmentStmt assignmentStmt) {
+    public InstructionList visit(AssignmentStmt assignmentStmt) {
         BinaryExpression node = new BinaryExpression(assignmentStmt.getLValue(), assignmentStmt.getRValue(), BinaryOperator.assign);
         isInAssignmentStmt = true;
         addCommand(node.accept(this));
@@ -387,7 +552,7 @@ public class CodeGenerator extends Visitor<String> {
     }
 
     @Override
-    public String visit(BlockStmt blockStmt) {
+    public InstructionList visit(BlockStmt blockStmt) {
         for (Statement stmt : blockStmt.getStatements()) {
             stmt.accept(this);
         }
@@ -395,81 +560,107 @@ public class CodeGenerator extends Visitor<String> {
     }
 
     @Override
-    public String visit(ConditionalStmt conditionalStmt) {
+    public InstructionList visit(ConditionalStmt conditionalStmt) {
         var hasElse = conditionalStmt.getElseBody() != null;
-        String l1 = getFreshLabel(), l2 = getFreshLabel();
-        addCommand(conditionalStmt.getCondition().accept(this));
-        addCommand(noneToPrimitive(new BoolType()));
-        addCommand("ifeq " + l1);
+        Label l1 = getFreshLabel(), l2 = getFreshLabel();
+        addCommand(jumpIf(conditionalStmt.getCondition(), false, l1));
+        SymbolTable.push(new SymbolTable(SymbolTable.top));
         conditionalStmt.getThenBody().accept(this);
+        SymbolTable.pop();
         if (hasElse) {
-            addCommand("goto " + l2);
+            addCommand("goto", l2);
         }
-        addCommand(l1 + ":");
+        addLabel(l1);
         if (hasElse) {
+            SymbolTable.push(new SymbolTable(SymbolTable.top));
             conditionalStmt.getElseBody().accept(this);
-            addCommand(l2 + ":");
+            SymbolTable.pop();
+            addLabel(l2);
         }
         return null;
     }
 
     @Override
-    public String visit(FunctionCallStmt functionCallStmt) {
+    public InstructionList visit(FunctionCallStmt functionCallStmt) {
         expressionTypeChecker.setInFunctionCallStmt(true);
         addCommand(functionCallStmt.getFunctionCall().accept(this));
-        addCommand("pop");
+        var funcType = (FptrType) functionCallStmt.getFunctionCall().getInstance().accept(expressionTypeChecker);
+        if (!(funcType.getReturnType() instanceof VoidType))
+            addCommand("pop");
         expressionTypeChecker.setInFunctionCallStmt(false);
         return null;
     }
 
     @Override
-    public String visit(DisplayStmt displayStmt) {
-        addCommand("getstatic java/lang/System/out Ljava/io/PrintStream;");
+    public InstructionList visit(DisplayStmt displayStmt) {
+        addCommand("getstatic", new MemberRef("java/lang/System", "out", "Ljava/io/PrintStream;"));
         Type argType = displayStmt.getArg().accept(expressionTypeChecker);
-        String commandsOfArg = displayStmt.getArg().accept(this);
+        InstructionList commandsOfArg = displayStmt.getArg().accept(this);
         addCommand(commandsOfArg);
-        addCommand(noneToPrimitive(argType));
+        addCommand(stackToPrimitive(argType));
         if (argType instanceof IntType)
-            addCommand("invokevirtual java/io/PrintStream/println(I)V");
+            addCommand("invokevirtual", new MemberRef("java/io/PrintStream", "println", "(I)V"));
         if (argType instanceof BoolType)
-            addCommand("invokevirtual java/io/PrintStream/println(Z)V");
+            addCommand("invokevirtual", new MemberRef("java/io/PrintStream", "println", "(Z)V"));
 
         return null;
     }
 
     @Override
-    public String visit(ReturnStmt returnStmt) {
+    public InstructionList visit(ReturnStmt returnStmt) {
+        if (isSelfTailCall(returnStmt.getReturnedExpr())) {
+            addCommand(tailCall((FunctionCall) returnStmt.getReturnedExpr()));
+            return null;
+        }
         if (returnStmt.getReturnedExpr() != null) {
             addCommand(returnStmt.getReturnedExpr().accept(this));
-            addCommand("areturn");
+            addCommand(isUnboxed(currentReturnType) ? "ireturn" : "areturn");
         } else {
             addCommand("return");
         }
         return null;
     }
 
-    public void visitWhile(LoopStmt loopStmt) {
-        String l1 = getFreshLabel(), l2 = getFreshLabel();
-        addCommand(l1 + ":");
-        addCommand(loopStmt.getCondition().accept(this));
-        addCommand(noneToPrimitive(new BoolType()));
-        addCommand("ifeq " + l2);
+    private boolean isSelfTailCall(Expression returnedExpr) {
+        return currentFunction != null && returnedExpr instanceof FunctionCall
+                && getCalledFunction((FunctionCall) returnedExpr) != null
+                && ((Identifier) ((FunctionCall) returnedExpr).getInstance()).getName()
+                        .equals(currentFunction.getFunctionName().getName());
+    }
+
+    // A function returning a call to itself stores the new arguments over its own and jumps back
+    // to its first instruction instead, so the recursion runs in one frame. All arguments are
+    // evaluated before the first store, since they may read the parameters being replaced.
+    private InstructionList tailCall(FunctionCall functionCall) {
+        var code = callArguments(functionCall, false);
+        ArrayList<VariableDeclaration> args = currentFunction.getArgs();
+        for (int i = args.size() - 1; i >= 0; i--)
+            code.add(storeLocal(slotOf(args.get(i).getVarName().getName()), args.get(i).getVarType()));
+        return code.add("goto", currentEntryLabel);
+    }
+
+    public void visitWhile(LoopStmt loopStmt) { // the condition sits after the body so each iteration takes one branch
+        Label l1 = getFreshLabel(), l2 = getFreshLabel();
+        addCommand("goto", l2);
+        addLabel(l1);
+        SymbolTable.push(new SymbolTable(SymbolTable.top));
         loopStmt.getBody().accept(this);
-        addCommand("goto " + l1);
-        addCommand(l2 + ":");
+        SymbolTable.pop();
+        addLabel(l2);
+        addCommand(jumpIf(loopStmt.getCondition(), true, l1));
     }
 
     public void visitDoWhile(LoopStmt loopStmt) {
-        String l1 = getFreshLabel();
-        addCommand(l1 + ":");
+        Label l1 = getFreshLabel();
+        addLabel(l1);
+        SymbolTable.push(new SymbolTable(SymbolTable.top));
         loopStmt.getBody().accept(this);
-        addCommand(loopStmt.getCondition().accept(this));
-        addCommand(noneToPrimitive(new BoolType()));
-        addCommand("ifne " + l1);
+        SymbolTable.pop();
+        addCommand(jumpIf(loopStmt.getCondition(), true, l1));
     }
 
     @Override
-    public String visit(LoopStmt loopStmt) {
+    public InstructionList visit(LoopStmt loopStmt) {
         if (loopStmt.getIsDoWhile()) {
             visitDoWhile(loopStmt);
         } else {
@@ -479,7 +670,7 @@ public class CodeGenerator extends Visitor<String> {
     }
 
     @Override
-    public String visit(VarDecStmt varDecStmt) {
+    public InstructionList visit(VarDecStmt varDecStmt) {
         for (VariableDeclaration stmt : varDecStmt.getVars()) {
             stmt.accept(this);
         }
@@ -487,7 +678,7 @@ public class CodeGenerator extends Visitor<String> {
     }
 
     @Override
-    public String visit(ListAppendStmt listAppendStmt) {
+    public InstructionList visit(ListAppendStmt listAppendStmt) {
         expressionTypeChecker.setInFunctionCallStmt(true);
         addCommand(listAppendStmt.getListAppendExpr().accept(this));
         expressionTypeChecker.setInFunctionCallStmt(false);
@@ -495,247 +686,522 @@ public class CodeGenerator extends Visitor<String> {
     }
 
     @Override
-    public String visit(ListSizeStmt listSizeStmt) {
+    public InstructionList visit(ListSizeStmt listSizeStmt) {
         addCommand(listSizeStmt.getListSizeExpr().accept(this));
         addCommand("pop");
         return null;
     }
 
     @Override
-    public String visit(BinaryExpression binaryExpression) {
+    public InstructionList visit(BinaryExpression binaryExpression) {
         //todo
-        var sb = new StringBuilder();
+        var code = new InstructionList();
         Type expr = binaryExpression.accept(expressionTypeChecker);
         BinaryOperator opr = binaryExpression.getBinaryOperator();
+        Type lvalue = binaryExpression.getFirstOperand().accept(expressionTypeChecker);
         Type rvalue = binaryExpression.getSecondOperand().accept(expressionTypeChecker); // for list assign
+        if (shortCircuit && (opr == BinaryOperator.and || opr == BinaryOperator.or)) {
+            Label l1 = getFreshLabel(), l2 = getFreshLabel();
+            code.add(jumpIf(binaryExpression, false, l1));
+            code.add("iconst_1").add("goto", l2);
+            code.addLabel(l1).add("iconst_0").addLabel(l2);
+            code.add(primitiveToStack(expr));
+            return code;
+        }
+        if ((opr == BinaryOperator.mult || opr == BinaryOperator.div) && getShift(binaryExpression.getSecondOperand()) > 0) {
+            code.add(binaryExpression.getFirstOperand().accept(this));
+            code.add(stackToPrimitive(lvalue));
+            code.add(shiftBy(opr, getShift(binaryExpression.getSecondOperand())));
+            code.add(primitiveToStack(expr));
+            return code;
+        }
+        if (opr == BinaryOperator.mult && getShift(binaryExpression.getFirstOperand()) > 0) {
+            code.add(binaryExpression.getSecondOperand().accept(this));
+            code.add(stackToPrimitive(rvalue));
+            code.add(shiftBy(opr, getShift(binaryExpression.getFirstOperand())));
+            code.add(primitiveToStack(expr));
+            return code;
+        }
         if((expr instanceof IntType || expr instanceof BoolType) && opr != BinaryOperator.assign){
-            sb.append(binaryExpression.getFirstOperand().accept(this));
-            sb.append("\n"+noneToPrimitive(rvalue)+"\n");
-            sb.append(binaryExpression.getSecondOperand().accept(this));
-            sb.append("\n"+noneToPrimitive(rvalue)+"\n");
+            code.add(binaryExpression.getFirstOperand().accept(this));
+            code.add(stackToPrimitive(lvalue));
+            code.add(binaryExpression.getSecondOperand().accept(this));
+            code.add(stackToPrimitive(rvalue));
 
             if (opr == BinaryOperator.add) {
-                sb.append("iadd");
-                sb.append("\n" + primitiveToNone(expr));
+                code.add("iadd");
+                code.add(primitiveToStack(expr));
             }
             if (opr == BinaryOperator.sub) {
-                sb.append("isub");
-                sb.append("\n" + primitiveToNone(expr));
+                code.add("isub");
+                code.add(primitiveToStack(expr));
             }
             if (opr == BinaryOperator.mult) {
-                sb.append("imul");
-                sb.append("\n" + primitiveToNone(expr));
+                code.add("imul");
+                code.add(primitiveToStack(expr));
             }
             if (opr == BinaryOperator.div) {
-                sb.append("idiv");
-                sb.append("\n" + primitiveToNone(expr));
+                code.add("idiv");
+                code.add(primitiveToStack(expr));
             }
             if (opr == BinaryOperator.and || opr == BinaryOperator.or) {
-                sb.append(opr == BinaryOperator.and ? "iand" : "ior");
-                sb.append("\n" + primitiveToNone(expr));
+                code.add(opr == BinaryOperator.and ? "iand" : "ior");
+                code.add(primitiveToStack(expr));
             }
             if (opr == BinaryOperator.gt || opr == BinaryOperator.lt) {
-                label += 1;
-                sb.append(opr == BinaryOperator.gt ? "if_icmpgt Label" + label : "if_icmplt Label" + label);
-                sb.append("\n");
-                label += 1;
-                sb.append("iconst_0\ngoto Label" + label);
-                sb.append("\n");
-                sb.append("Label" + (label - 1) + ":\n");
-                sb.append("iconst_1\nLabel" + label + ":\n");
-                sb.append("\n"+primitiveToNone(expr));
+                code.add(comparisonValue(opr == BinaryOperator.gt ? "if_icmpgt" : "if_icmplt"));
+                code.add(primitiveToStack(expr));
             }
             if (opr == BinaryOperator.eq) {
                 if (rvalue instanceof IntType || rvalue instanceof BoolType) {
-                    label += 1;
-                    sb.append("if_icmpeq Label" + label);
-                    sb.append("\n");
-                    label += 1;
-                    sb.append("iconst_0\ngoto Label" + label);
-                    sb.append("\n");
-                    sb.append("Label" + (label - 1) + ":\n");
-                    sb.append("iconst_1\nLabel" + label + ":\n");
-                    sb.append("\n" + primitiveToNone(expr));
+                    code.add(comparisonValue("if_icmpeq"));
+                    code.add(primitiveToStack(expr));
                 } else {
-                    label += 1;
-                    sb.append("if_acmpeq Label" + label);
-                    sb.append("\n");
-                    label += 1;
-                    sb.append("iconst_0\ngoto Label" + label);
-                    sb.append("\n");
-                    sb.append("Label" + (label - 1) + ":\n");
-                    sb.append("iconst_1\nLabel" + label + ":\n");
-                    sb.append("\n" + primitiveToNone(expr));
+                    code.add(comparisonValue("if_acmpeq"));
+                    code.add(primitiveToStack(expr));
                 }
             }
         }
         if (opr == BinaryOperator.assign) { //check lvalue
-            var ltype = binaryExpression.getFirstOperand().accept(expressionTypeChecker);
-            if (binaryExpression.getFirstOperand() instanceof StructAccess) {
+            var ltype = lvalue;
+            if (binaryExpression.getFirstOperand() instanceof StructAccess
+                    && isReplacedStructField((StructAccess) binaryExpression.getFirstOperand())) {
+                code.add(binaryExpression.getSecondOperand().accept(this));
+                code.add(storeLocal(slotOf(StructEscapeAnalyzer.getPath(binaryExpression.getFirstOperand())), ltype));
+            } else if (binaryExpression.getFirstOperand() instanceof StructAccess) {
                 var type = (StructType) ((StructAccess) binaryExpression.getFirstOperand()).getInstance().accept(expressionTypeChecker);
                 var element = ((StructAccess) binaryExpression.getFirstOperand()).getElement();
-                sb.append(((StructAccess) binaryExpression.getFirstOperand()).getInstance().accept(this));
-                sb.append("\n");
-                sb.append(binaryExpression.getSecondOperand().accept(this));
-                sb.append("\n");
-                sb.append("putfield " + type.getStructName().getName() + "/" + element.getName() + " " + getJasminType(ltype));
+                code.add(((StructAccess) binaryExpression.getFirstOperand()).getInstance().accept(this));
+                code.add(binaryExpression.getSecondOperand().accept(this));
+                code.add("putfield", new MemberRef(type.getStructName().getName(), element.getName(), getFieldType(ltype)));
             }
             if (binaryExpression.getFirstOperand() instanceof ListAccessByIndex) {
-                sb.append("\n");
-                sb.append(((ListAccessByIndex) binaryExpression.getFirstOperand()).getInstance().accept(this));
-                sb.append("\n");
-                sb.append(((ListAccessByIndex) binaryExpression.getFirstOperand()).getIndex().accept(this));
-                sb.append("\n");
-                sb.append(noneToPrimitive(new IntType()));
-                sb.append("\n");
-                sb.append("\nnew List");
-                sb.append("\ndup\n");
-                sb.append(binaryExpression.getSecondOperand().accept(this));
-                sb.append("\n");
-                sb.append("invokevirtual List/setElement(ILjava/lang/Object;)V");
+                Expression instance = ((ListAccessByIndex) binaryExpression.getFirstOperand()).getInstance();
+                String listClass = getListClass(instance.accept(expressionTypeChecker));
+                code.add(instance.accept(this));
+                code.add(((ListAccessByIndex) binaryExpression.getFirstOperand()).getIndex().accept(this));
+                code.add(stackToPrimitive(new IntType()));
+                code.add(binaryExpression.getSecondOperand().accept(this));
+                if (listClass.equals("List")) {
+                    code.add(stackToNone(ltype));
+                    code.add("invokevirtual", new MemberRef("List", "setElement", "(ILjava/lang/Object;)V"));
+                } else {
+                    code.add("invokevirtual", new MemberRef(listClass, "set" + getElementAccessor(listClass),
+                            "(I" + getMethodType(ltype) + ")V"));
+                }
             }
 
-            if (binaryExpression.getFirstOperand() instanceof Identifier) {
+            if (binaryExpression.getFirstOperand() instanceof Identifier && isInAssignmentStmt
+                    && getIncrement(binaryExpression) != null) {
+                Identifier lvalueId = (Identifier) binaryExpression.getFirstOperand();
+                code.add("iinc", slotOf(lvalueId.getName()), getIncrement(binaryExpression));
+            } else if (binaryExpression.getFirstOperand() instanceof Identifier) {
                 if (ltype instanceof ListType) {
-                    sb.append("\n");
-                    sb.append("new List");
-                    sb.append("\ndup\n");
-                    sb.append(binaryExpression.getSecondOperand().accept(this));
-                    sb.append("\ninvokespecial List/<init>(LList;)V");
+                    code.add(copyList(ltype, binaryExpression.getSecondOperand().accept(this)));
                 } else {
-                    sb.append(binaryExpression.getSecondOperand().accept(this));
+                    code.add(binaryExpression.getSecondOperand().accept(this));
                 }
 
-                Identifier lvalue = (Identifier) binaryExpression.getFirstOperand();
+                Identifier lvalueId = (Identifier) binaryExpression.getFirstOperand();
                 if (isInAssignmentStmt) {
-                    var slotno = slotOf(lvalue.getName());
-                    sb.append("\n");
-                    sb.append((slotno > 3 ? "astore " : "astore_") + slotno);
+                    var slotno = slotOf(lvalueId.getName());
+                    code.add(storeLocal(slotno, ltype));
                 }
             }
         }
 
-        return sb.toString();
+        return code;
+    }
+
+    // The k of a constant operand 2^k with k > 0, or 0 when there is none or strength reduction is off.
+    private int getShift(Expression operand) {
+        if (!strengthReduction || !(operand instanceof IntValue))
+            return 0;
+        int constant = ((IntValue) operand).getConstant();
+        return constant > 1 && (constant & (constant - 1)) == 0 ? Integer.numberOfTrailingZeros(constant) : 0;
+    }
+
+    // ishr rounds toward negative infinity while idiv truncates toward zero, so a negative
+    // dividend is first biased by 2^k - 1, which (x >> 31) >>> (32 - k) yields from its sign.
+    private InstructionList shiftBy(BinaryOperator opr, int shift) {
+        if (opr == BinaryOperator.mult)
+            return new InstructionList().add("ldc", shift).add("ishl");
+        return new InstructionList().add("dup").add("ldc", 31).add("ishr").add("ldc", 32 - shift).add("iushr")
+                .add("iadd").add("ldc", shift).add("ishr");
+    }
+
+    // Leaves 1 when the jump compares true and 0 otherwise.
+    private InstructionList comparisonValue(String jump) {
+        Label l1 = getFreshLabel(), l2 = getFreshLabel();
+        return new InstructionList().add(jump, l1).add("iconst_0").add("goto", l2)
+                .addLabel(l1).add("iconst_1").addLabel(l2);
+    }
+
+    // The constant an assignment such as i = i + 1 or i = i - 1 adds to an unboxed int local, when
+    // it fits the operand of iinc and strength reduction is on.
+    private Integer getIncrement(BinaryExpression assignment) {
+        String name = ((Identifier) assignment.getFirstOperand()).getName();
+        if (!strengthReduction || !isUnboxed(assignment.getFirstOperand().accept(expressionTypeChecker))
+                || slotOf(name) > 255 || !(assignment.getSecondOperand() instanceof BinaryExpression))
+            return null;
+        BinaryExpression update = (BinaryExpression) assignment.getSecondOperand();
+        Expression first = update.getFirstOperand();
+        Expression second = update.getSecondOperand();
+        Integer increment = null;
+        if (update.getBinaryOperator() == BinaryOperator.add && isIdentifier(first, name) && second instanceof IntValue)
+            increment = ((IntValue) second).getConstant();
+        else if (update.getBinaryOperator() == BinaryOperator.add && isIdentifier(second, name) && first instanceof IntValue)
+            increment = ((IntValue) first).getConstant();
+        else if (update.getBinaryOperator() == BinaryOperator.sub && isIdentifier(first, name) && second instanceof IntValue)
+            increment = -((IntValue) second).getConstant();
+        return increment != null && increment >= Byte.MIN_VALUE && increment <= Byte.MAX_VALUE ? increment : null;
+    }
+
+    private boolean isIdentifier(Expression expression, String name) {
+        return expression instanceof Identifier && ((Identifier) expression).getName().equals(name);
     }
 
     @Override
-    public String visit(UnaryExpression unaryExpression) {
-        return null;
+    public InstructionList visit(UnaryExpression unaryExpression) {
+        Type type = unaryExpression.accept(expressionTypeChecker);
+        var code = new InstructionList();
+        code.add(unaryExpression.getOperand().accept(this));
+        code.add(stackToPrimitive(type));
+        if (unaryExpression.getOperator() == UnaryOperator.minus)
+            code.add("ineg");
+        else
+            code.add("iconst_1").add("ixor");
+        code.add(primitiveToStack(type));
+        return code;
+    }
+
+    // Compiles a bool expression into code that jumps to target when the expression evaluates to
+    // jumpWhen and falls through otherwise, so conditions never materialize a bool on the stack.
+    private InstructionList jumpIf(Expression condition, boolean jumpWhen, Label target) {
+        if (condition instanceof ExprInPar && ((ExprInPar) condition).getInputs().size() == 1)
+            return jumpIf(((ExprInPar) condition).getInputs().get(0), jumpWhen, target);
+        if (condition instanceof BoolValue) {
+            if (((BoolValue) condition).getConstant() == jumpWhen)
+                return new InstructionList().add("goto", target);
+            return new InstructionList();
+        }
+        if (condition instanceof UnaryExpression && ((UnaryExpression) condition).getOperator() == UnaryOperator.not)
+            return jumpIf(((UnaryExpression) condition).getOperand(), !jumpWhen, target);
+        if (condition instanceof BinaryExpression) {
+            BinaryExpression binaryExpression = (BinaryExpression) condition;
+            Expression first = binaryExpression.getFirstOperand();
+            Expression second = binaryExpression.getSecondOperand();
+            BinaryOperator opr = binaryExpression.getBinaryOperator();
+            if (opr == BinaryOperator.gt || opr == BinaryOperator.lt || opr == BinaryOperator.eq) {
+                Type firstType = first.accept(expressionTypeChecker);
+                Type secondType = second.accept(expressionTypeChecker);
+                boolean isPrimitive = firstType instanceof IntType || firstType instanceof BoolType;
+                var code = new InstructionList();
+                code.add(first.accept(this));
+                if (isPrimitive)
+                    code.add(stackToPrimitive(firstType));
+                code.add(second.accept(this));
+                if (isPrimitive)
+                    code.add(stackToPrimitive(secondType));
+                String comparison;
+                if (opr == BinaryOperator.gt)
+                    comparison = jumpWhen ? "if_icmpgt" : "if_icmple";
+                else if (opr == BinaryOperator.lt)
+                    comparison = jumpWhen ? "if_icmplt" : "if_icmpge";
+                else if (isPrimitive)
+                    comparison = jumpWhen ? "if_icmpeq" : "if_icmpne";
+                else
+                    comparison = jumpWhen ? "if_acmpeq" : "if_acmpne";
+                code.add(comparison, target);
+                return code;
+            }
+            // with eager logic skipping the second operand is only allowed when evaluating it can have no effect
+            if ((opr == BinaryOperator.and || opr == BinaryOperator.or) && (shortCircuit || !SideEffects.hasSideEffects(second))) {
+                if ((opr == BinaryOperator.and) != jumpWhen)
+                    return jumpIf(first, jumpWhen, target).add(jumpIf(second, jumpWhen, target));
+                Label skip = getFreshLabel();
+                return jumpIf(first, !jumpWhen, skip).add(jumpIf(second, jumpWhen, target)).addLabel(skip);
+            }
+        }
+        return new InstructionList().add(condition.accept(this)).add(stackToPrimitive(new BoolType()))
+                .add(jumpWhen ? "ifne" : "ifeq", target);
     }
 
     @Override
-    public String visit(StructAccess structAccess) {
+    public InstructionList visit(StructAccess structAccess) {
+        if (isReplacedStructField(structAccess))
+            return new InstructionList().add(loadLocal(slotOf(StructEscapeAnalyzer.getPath(structAccess)), structAccess.accept(expressionTypeChecker)));
         Type obj = structAccess.getInstance().accept(expressionTypeChecker);
         StructType struct = (StructType) obj;
         String nameStruct = struct.getStructName().getName();
         String nameField = structAccess.getElement().getName();
         Type typeField = structAccess.accept(expressionTypeChecker);
-        var sb = new StringBuilder();
-        sb.append(structAccess.getInstance().accept(this));
-        sb.append("\n");
-        sb.append("getfield " + nameStruct + "/" + nameField + " L" + getType(typeField) + ";");
-        sb.append("\n");
-        return sb.toString();
+        var code = new InstructionList();
+        code.add(structAccess.getInstance().accept(this));
+        code.add("getfield", new MemberRef(nameStruct, nameField, getFieldType(typeField)));
+        return code;
     }
 
     @Override
-    public String visit(Identifier identifier) {
+    public InstructionList visit(Identifier identifier) {
         Type idType = expressionTypeChecker.visit(identifier);
-        var sb = new StringBuilder();
+        var code = new InstructionList();
         if (idType instanceof FptrType) {
-            if (!arr.contains(identifier.getName())) {
-                sb.append("\nnew Fptr\n");
-                sb.append("dup\n");
-                sb.append("aload_0\n");
-                sb.append("ldc \"" + identifier.getName() + "\"\n");
-                sb.append("invokespecial Fptr/<init>(Ljava/lang/Object;Ljava/lang/String;)V\n");
-                return sb.toString();
+            if (!slots.containsKey(identifier.getName())) {
+                referencedFunctions.add(identifier.getName());
+                code.add("getstatic", new MemberRef(getFunctionClass(identifier.getName()), "instance", getJasminType(idType)));
+                return code;
             }
         }
         var slotNo = slotOf(identifier.getName());
-        sb.append("\n");
-        sb.append((slotNo > 3 ? "aload " : "aload_") + slotNo);
-        return sb.toString();
+        code.add(loadLocal(slotNo, idType));
+        return code;
+    }
+
+    // Every fptr signature becomes an interface with a typed apply method, and every function
+    // used as a value gets a class implementing it, so calling an fptr is one invokeinterface.
+    private String getFptrInterface(FptrType fptrType) {
+        String descriptor = getApplyDescriptor(fptrType);
+        String interfaceName = fptrInterfaceNames.get(descriptor);
+        if (interfaceName == null) {
+            var name = new StringBuilder("Fptr$");
+            for (Type argType : fptrType.getArgsType())
+                name.append(getSignatureCode(argType)).append("_");
+            interfaceName = name.append(getSignatureCode(fptrType.getReturnType())).toString();
+            if (fptrInterfaces.containsKey(interfaceName)) // different nested fptr types share a code
+                interfaceName += "$" + fptrInterfaces.size();
+            fptrInterfaceNames.put(descriptor, interfaceName);
+            fptrInterfaces.put(interfaceName, fptrType);
+            fptrInterfaceOrder.add(interfaceName);
+        }
+        return interfaceName;
+    }
+
+    private String getSignatureCode(Type type) {
+        if (type instanceof IntType)
+            return "I";
+        if (type instanceof BoolType)
+            return "Z";
+        if (type instanceof ListType)
+            return "L";
+        if (type instanceof FptrType)
+            return "F";
+        if (type instanceof StructType)
+            return "S" + ((StructType) type).getStructName().getName();
+        return "V";
+    }
+
+    private String getApplyDescriptor(FptrType fptrType) {
+        var descriptor = new StringBuilder("(");
+        for (Type argType : fptrType.getArgsType())
+            descriptor.append(getJasminType(argType));
+        return descriptor.append(")").append(getJasminType(fptrType.getReturnType())).toString();
+    }
+
+    // Functions take and return int and bool as I and Z in unboxed mode; the boxed form is only
+    // needed by the apply method of a function that escapes as an fptr value.
+    private String getMethodDescriptor(FptrType functionType) {
+        var descriptor = new StringBuilder("(");
+        for (Type argType : functionType.getArgsType())
+            descriptor.append(getMethodType(argType));
+        return descriptor.append(")").append(getMethodType(functionType.getReturnType())).toString();
+    }
+
+    private String getMethodType(Type type) {
+        if (isUnboxed(type))
+            return type instanceof IntType ? "I" : "Z";
+        return getJasminType(type);
+    }
+
+    // Struct fields hold values in the same representation as locals, so in unboxed mode int and
+    // bool fields are I/Z and are read and written without boxing.
+    private String getFieldType(Type type) {
+        return getMethodType(type);
+    }
+
+    private String getFunctionClass(String functionName) {
+        return "Function$" + functionName;
+    }
+
+    private FptrType getFunctionType(String functionName) {
+        try {
+            var function = (FunctionSymbolTableItem) SymbolTable.root.getItem(FunctionSymbolTableItem.START_KEY + functionName);
+            return new FptrType(function.getArgTypes(), function.getReturnType());
+        } catch (ItemNotFoundException e) {//unreachable
+            return null;
+        }
+    }
+
+    // Main is constructed before any Cmm code runs, so its constructor creates the one shared
+    // instance of every function class.
+    private void addMainConstructor() {
+        addDirective(".method", "public", "<init>()V");
+        addCommand("aload_0");
+        addCommand("invokespecial", new MemberRef("java/lang/Object", "<init>", "()V"));
+        for (String functionName : referencedFunctions) {
+            String functionClass = getFunctionClass(functionName);
+            addCommand("new", functionClass);
+            addCommand("dup");
+            addCommand("aload_0");
+            addCommand("invokespecial", new MemberRef(functionClass, "<init>", "(LMain;)V"));
+            addCommand("putstatic", new MemberRef(functionClass, "instance", getJasminType(getFunctionType(functionName))));
+        }
+        setFooter();
+    }
+
+    private void addFunctionClass(String functionName) {
+        FptrType functionType = getFunctionType(functionName);
+        String functionClass = getFunctionClass(functionName);
+        createFile(functionClass);
+        addDirective(".class", "public", functionClass);
+        addDirective(".super", "java/lang/Object");
+        addDirective(".implements", getFptrInterface(functionType));
+        addDirective(".field", "public", "static", "instance", getJasminType(functionType));
+        addDirective(".field", "public", "main", "LMain;");
+        addDirective(".method", "public", "<init>(LMain;)V");
+        addCommand("aload_0");
+        addCommand("invokespecial", new MemberRef("java/lang/Object", "<init>", "()V"));
+        addCommand("aload_0");
+        addCommand("aload_1");
+        addCommand("putfield", new MemberRef(functionClass, "main", "LMain;"));
+        setFooter();
+        addDirective(".method", "public", "apply" + getApplyDescriptor(functionType));
+        addCommand("aload_0");
+        addCommand("getfield", new MemberRef(functionClass, "main", "LMain;"));
+        for (int slot = 1; slot <= functionType.getArgsType().size(); slot++) {
+            addCommand(localAccess("aload", slot));
+            addCommand(noneToStack(functionType.getArgsType().get(slot - 1)));
+        }
+        addCommand("invokevirtual", new MemberRef("Main", functionName, getMethodDescriptor(functionType)));
+        addCommand(stackToNone(functionType.getReturnType()));
+        addCommand(functionType.getReturnType() instanceof VoidType ? "return" : "areturn");
+        addDirective(".end", "method");
+    }
+
+    private void addFptrInterface(String interfaceName) {
+        createFile(interfaceName);
+        addDirective(".interface", "public", "abstract", interfaceName);
+        addDirective(".super", "java/lang/Object");
+        addDirective(".method", "public", "abstract", "apply" + getApplyDescriptor(fptrInterfaces.get(interfaceName)));
+        addDirective(".end", "method");
     }
 
     @Override
-    public String visit(ListAccessByIndex listAccessByIndex) { // return None primitive
-        var sb = new StringBuilder();
-        sb.append(listAccessByIndex.getInstance().accept(this));
-        sb.append("\n");
-        sb.append(listAccessByIndex.getIndex().accept(this));
-        sb.append("\n");
-        sb.append(noneToPrimitive(new IntType()));
-        sb.append("\n");
-        sb.append("invokevirtual List/getElement(I)Ljava/lang/Object;");
-        sb.append("\n");
+    public InstructionList visit(ListAccessByIndex listAccessByIndex) { // return None primitive
+        var code = new InstructionList();
+        String listClass = getListClass(listAccessByIndex.getInstance().accept(expressionTypeChecker));
+        code.add(listAccessByIndex.getInstance().accept(this));
+        code.add(listAccessByIndex.getIndex().accept(this));
+        code.add(stackToPrimitive(new IntType()));
+        if (!listClass.equals("List")) {
+            Type elementType = listAccessByIndex.accept(expressionTypeChecker);
+            code.add("invokevirtual", new MemberRef(listClass, "get" + getElementAccessor(listClass),
+                    "(I)" + getMethodType(elementType)));
+            return code;
+        }
+        code.add("invokevirtual", new MemberRef("List", "getElement", "(I)Ljava/lang/Object;"));
         Type obj = listAccessByIndex.accept(expressionTypeChecker);
-        sb.append(cast(obj));
-        sb.append("\n");
-        return sb.toString();
+        code.add(cast(obj));
+        code.add(noneToStack(obj));
+        return code;
     }
 
-    @Override
-    public String visit(FunctionCall functionCall) {
-        var funcType = (FptrType) functionCall.getInstance().accept(expressionTypeChecker);
-        var sb = new StringBuilder(functionCall.getInstance().accept(this));
-        sb.append("\nnew java/util/ArrayList");
-        sb.append("\ndup");
-        sb.append("\ninvokespecial java/util/ArrayList/<init>()V");
-        for (Expression arg : functionCall.getArgs()) {
-            sb.append("\ndup");
+    // A call whose target names a top-level function is made directly on Main; only real
+    // function-pointer values go through their fptr interface.
+    private FunctionSymbolTableItem getCalledFunction(FunctionCall functionCall) {
+        if (!(functionCall.getInstance() instanceof Identifier))
+            return null;
+        String name = ((Identifier) functionCall.getInstance()).getName();
+        if (slots.containsKey(name))
+            return null;
+        try {
+            return (FunctionSymbolTableItem) SymbolTable.root.getItem(FunctionSymbolTableItem.START_KEY + name);
+        } catch (ItemNotFoundException e) {
+            return null;
+        }
+    }
+
+    // A list the called function only reads is passed as it is; any other list argument is
+    // copied, as are all of them when the callee is only known through a function pointer.
+    private InstructionList callArguments(FunctionCall functionCall, boolean isBoxed) {
+        var code = new InstructionList();
+        HashSet<Integer> shared = new HashSet<>();
+        FunctionSymbolTableItem callee = getCalledFunction(functionCall);
+        if (callee != null)
+            shared = readOnlyListArgs.computeIfAbsent(callee.getName(),
+                    name -> ReadOnlyListArgs.find(callee.getFunctionDeclaration()));
+        for (int i = 0; i < functionCall.getArgs().size(); i++) {
+            Expression arg = functionCall.getArgs().get(i);
             var type = arg.accept(expressionTypeChecker);
-            if (type instanceof ListType) {
-                sb.append("\nnew List");
-                sb.append("\ndup");
-            }
-            sb.append("\n" + arg.accept(this));
-            if (type instanceof ListType) {
-                sb.append("\ninvokespecial List/<init>(LList;)V");
-            }
-            sb.append("\ninvokevirtual java/util/ArrayList/add(Ljava/lang/Object;)Z");
-            sb.append("\npop");
+            if (type instanceof ListType && !shared.contains(i))
+                code.add(copyList(type, arg.accept(this)));
+            else
+                code.add(arg.accept(this));
+            if (isBoxed)
+                code.add(stackToNone(type));
         }
-        sb.append("\ninvokevirtual Fptr/invoke(Ljava/util/ArrayList;)Ljava/lang/Object;");
-        if(!(funcType.getReturnType() instanceof VoidType))
-            sb.append("\n" + cast(funcType.getReturnType()));
-        return sb.toString();
+        return code;
+    }
+
+    private InstructionList directCall(FunctionCall functionCall) {
+        var code = new InstructionList().add("aload_0");
+        code.add(callArguments(functionCall, false));
+        String name = ((Identifier) functionCall.getInstance()).getName();
+        code.add("invokevirtual", new MemberRef("Main", name, getMethodDescriptor(getFunctionType(name))));
+        return code;
+    }
+
+    @Override
+    public InstructionList visit(FunctionCall functionCall) {
+        if (getCalledFunction(functionCall) != null)
+            return directCall(functionCall);
+        var funcType = (FptrType) functionCall.getInstance().accept(expressionTypeChecker);
+        var code = new InstructionList().add(functionCall.getInstance().accept(this));
+        code.add(callArguments(functionCall, true));
+        code.add("invokeinterface", new MemberRef(getFptrInterface(funcType), "apply", getApplyDescriptor(funcType)),
+                functionCall.getArgs().size() + 1);
+        if (!(funcType.getReturnType() instanceof VoidType))
+            code.add(noneToStack(funcType.getReturnType()));
+        return code;
     }
 
     @Override
-    public String visit(ListSize listSize) {
-        var sb = new StringBuilder();
-        sb.append(listSize.getArg().accept(this));
-        sb.append("\n");
-        sb.append("invokevirtual List/getSize()I\n");
-        sb.append(primitiveToNone(new IntType()));
-        sb.append("\n");
-        return sb.toString();
+    public InstructionList visit(ListSize listSize) {
+        var code = new InstructionList();
+        code.add(listSize.getArg().accept(this));
+        code.add("invokevirtual", new MemberRef(getListClass(listSize.getArg().accept(expressionTypeChecker)), "getSize", "()I"));
+        code.add(primitiveToStack(new IntType()));
+        return code;
     }
 
     @Override
-    public String visit(ListAppend listAppend) {
-        var sb = new StringBuilder();
-        sb.append(listAppend.getListArg().accept(this));
-        sb.append("\n");
-        sb.append(listAppend.getElementArg().accept(this));
-        sb.append("\n");
-        sb.append("invokevirtual List/addElement(Ljava/lang/Object;)V\n");
-        return sb.toString();
+    public InstructionList visit(ListAppend listAppend) {
+        var code = new InstructionList();
+        Type elementType = listAppend.getElementArg().accept(expressionTypeChecker);
+        String listClass = getListClass(listAppend.getListArg().accept(expressionTypeChecker));
+        code.add(listAppend.getListArg().accept(this));
+        code.add(listAppend.getElementArg().accept(this));
+        if (listClass.equals("List")) {
+            code.add(stackToNone(elementType));
+            code.add("invokevirtual", new MemberRef("List", "addElement", "(Ljava/lang/Object;)V"));
+        } else
+            code.add("invokevirtual", new MemberRef(listClass, "add" + getElementAccessor(listClass),
+                    "(" + getMethodType(elementType) + ")V"));
+        return code;
     }
 
     @Override
-    public String visit(IntValue intValue) {
-        return "\nldc " + intValue.getConstant() + "\n" + primitiveToNone(new IntType());
+    public InstructionList visit(IntValue intValue) {
+        return new InstructionList().add("ldc", intValue.getConstant()).add(primitiveToStack(new IntType()));
     }
 
     @Override
-    public String visit(BoolValue boolValue) {
-        return "\n"+(boolValue.getConstant() ? "ldc 1" : "ldc 0") + "\n" + primitiveToNone(new BoolType());
+    public InstructionList visit(BoolValue boolValue) {
+        return new InstructionList().add("ldc", boolValue.getConstant() ? 1 : 0).add(primitiveToStack(new BoolType()));
     }
 
     @Override
-    public String visit(ExprInPar exprInPar) {
+    public InstructionList visit(ExprInPar exprInPar) {
         return exprInPar.getInputs().get(0).accept(this);
     }
 }
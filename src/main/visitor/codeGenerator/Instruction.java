@@ -0,0 +1,162 @@
+package main.visitor.codeGenerator;
+
+import java.util.*;
+
+// One line of a Jasmin class: a directive such as ".limit stack 4", a label such as "label3:"
+// or an instruction such as "invokevirtual List/getSize()I". The opcode holds the directive
+// with its dot or the mnemonic. The operands of an instruction are Integer constants and slots,
+// String class names and string constants, Labels and MemberRefs; those of a directive are
+// its words. Only the hand-written runtime classes are read from text, through parse.
+public class Instruction {
+    public enum Kind { DIRECTIVE, LABEL, INSTRUCTION }
+
+    private final Kind kind;
+    private final String opcode;
+    private final ArrayList<Object> operands;
+
+    private Instruction(Kind kind, String opcode, ArrayList<Object> operands) {
+        this.kind = kind;
+        this.opcode = opcode;
+        this.operands = operands;
+    }
+
+    public static Instruction of(String opcode, Object... operands) {
+        return new Instruction(Kind.INSTRUCTION, opcode, new ArrayList<>(Arrays.asList(operands)));
+    }
+
+    public static Instruction directive(String directive, String... words) {
+        return new Instruction(Kind.DIRECTIVE, directive, new ArrayList<>(Arrays.asList(words)));
+    }
+
+    public static Instruction label(Label label) {
+        return new Instruction(Kind.LABEL, label.getName(), new ArrayList<>(List.of(label)));
+    }
+
+    // Returns null for blank and comment lines. Offset prefixes such as "12: aload_0", which the
+    // disassembled runtime classes carry, are dropped.
+    public static Instruction parse(String line) {
+        line = line.trim();
+        int colon = line.indexOf(':');
+        if (colon > 0 && isNumber(line, colon))
+            line = line.substring(colon + 1).trim();
+        if (line.isEmpty() || line.startsWith(";"))
+            return null;
+        int space = indexOfWhitespace(line);
+        if (space < 0 && line.endsWith(":"))
+            return label(new Label(line.substring(0, line.length() - 1)));
+        String opcode = space < 0 ? line : line.substring(0, space);
+        String operand = space < 0 ? "" : line.substring(space + 1).trim();
+        if (opcode.startsWith("."))
+            return directive(opcode, operand.isEmpty() ? new String[0] : operand.split("\\s+"));
+        return new Instruction(Kind.INSTRUCTION, opcode, parseOperands(opcode, operand));
+    }
+
+    private static ArrayList<Object> parseOperands(String opcode, String operand) {
+        ArrayList<Object> operands = new ArrayList<>();
+        if (operand.isEmpty())
+            return operands;
+        String[] words = operand.split("\\s+");
+        if (opcode.startsWith("invoke")) {
+            operands.add(MemberRef.parseMethod(words[0]));
+            if (words.length > 1) // the argument count of invokeinterface
+                operands.add(Integer.parseInt(words[1]));
+        } else if (opcode.startsWith("get") || opcode.startsWith("put"))
+            operands.add(MemberRef.parseField(words[0], words[1]));
+        else if (operand.startsWith("\"")) // a string constant of ldc
+            operands.add(operand.substring(1, operand.length() - 1));
+        else if (isJump(opcode))
+            operands.add(new Label(operand));
+        else
+            for (String word : words)
+                operands.add(isNumber(word, word.length()) || word.startsWith("-") ? Integer.valueOf(word) : word);
+        return operands;
+    }
+
+    public static boolean isJump(String opcode) {
+        return opcode.startsWith("if") || opcode.equals("goto") || opcode.equals("goto_w") || opcode.equals("jsr");
+    }
+
+    private static boolean isNumber(String line, int end) {
+        for (int i = 0; i < end; i++)
+            if (!Character.isDigit(line.charAt(i)))
+                return false;
+        return end > 0;
+    }
+
+    private static int indexOfWhitespace(String line) {
+        for (int i = 0; i < line.length(); i++)
+            if (Character.isWhitespace(line.charAt(i)))
+                return i;
+        return -1;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getOpcode() {
+        return opcode;
+    }
+
+    public ArrayList<Object> getOperands() {
+        return operands;
+    }
+
+    public Object getOperand(int index) {
+        return index < operands.size() ? operands.get(index) : null;
+    }
+
+    // The label a jump goes to or a label line places, or null.
+    public Label getLabel() {
+        return getOperand(0) instanceof Label ? (Label) getOperand(0) : null;
+    }
+
+    public MemberRef getMember() {
+        return getOperand(0) instanceof MemberRef ? (MemberRef) getOperand(0) : null;
+    }
+
+    public boolean isDirective(String directive) {
+        return kind == Kind.DIRECTIVE && opcode.equals(directive);
+    }
+
+    // Whether this is the ".end method" or ".end stack" that closes a block.
+    public boolean isEnd(String block) {
+        return isDirective(".end") && block.equals(getOperand(0));
+    }
+
+    public boolean isLabel() {
+        return kind == Kind.LABEL;
+    }
+
+    public boolean isInstruction() {
+        return kind == Kind.INSTRUCTION;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Instruction))
+            return false;
+        Instruction that = (Instruction) o;
+        return kind == that.kind && opcode.equals(that.opcode) && operands.equals(that.operands);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(kind, opcode, operands);
+    }
+
+    @Override
+    public String toString() {
+        if (kind == Kind.LABEL)
+            return opcode + ":";
+        StringBuilder line = new StringBuilder(opcode);
+        for (Object operand : operands) {
+            line.append(' ');
+            if (operand instanceof String && kind == Kind.INSTRUCTION && opcode.startsWith("ldc"))
+                line.append('"').append(operand).append('"');
+            else
+                line.append(operand);
+        }
+        return line.toString();
+    }
+}
@@ -0,0 +1,39 @@
+package main.visitor.codeGenerator;
+
+import java.util.*;
+
+// The code an expression or statement compiles to. Instructions are appended as they are built,
+// and appending another list copies only references, so nested expressions never copy the code
+// of their operands.
+public class InstructionList implements Iterable<Instruction> {
+    private final ArrayList<Instruction> instructions = new ArrayList<>();
+
+    public InstructionList add(String opcode, Object... operands) {
+        instructions.add(Instruction.of(opcode, operands));
+        return this;
+    }
+
+    public InstructionList add(Instruction instruction) {
+        instructions.add(instruction);
+        return this;
+    }
+
+    public InstructionList add(InstructionList code) {
+        instructions.addAll(code.instructions);
+        return this;
+    }
+
+    public InstructionList addLabel(Label label) {
+        instructions.add(Instruction.label(label));
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return instructions.isEmpty();
+    }
+
+    @Override
+    public Iterator<Instruction> iterator() {
+        return instructions.iterator();
+    }
+}
@@ -0,0 +1,79 @@
+package main.visitor.codeGenerator;
+
+import jasmin.ClassFile;
+
+import java.io.*;
+import java.util.*;
+
+// Writes each class as Jasmin text and assembles it in-process through jasmin.ClassFile,
+// reading the text back from memory instead of running jasmin.jar on the written files.
+public class JasminEmitter implements CodeEmitter {
+    private final String outputPath;
+    private String className;
+    private StringBuilder currentFile;
+    private int errors = 0;
+    private final LinkedHashMap<String, byte[]> classFiles = new LinkedHashMap<>();
+
+    public JasminEmitter(String outputPath) {
+        this.outputPath = outputPath;
+    }
+
+    @Override
+    public void createClass(String name) {
+        this.className = name;
+        this.currentFile = new StringBuilder();
+    }
+
+    @Override
+    public void addInstruction(Instruction instruction) {
+        if (instruction.getKind() != Instruction.Kind.DIRECTIVE)
+            this.currentFile.append("\t\t");
+        this.currentFile.append(instruction).append("\n");
+    }
+
+    @Override
+    public void closeClass() {
+        String text = this.currentFile.toString();
+        try (Writer writer = new BufferedWriter(new FileWriter(this.outputPath + className + ".j"))) {
+            writer.write(text);
+        } catch (IOException e) {//never reached
+        }
+        assemble(text);
+    }
+
+    private void assemble(String text) {
+        String fileName = className + ".j";
+        ClassFile classFile = new ClassFile();
+        ByteArrayOutputStream messages = new ByteArrayOutputStream();
+        PrintStream systemErr = System.err;
+        System.setErr(new PrintStream(messages, true)); // jasmin reports syntax errors on System.err
+        try {
+            classFile.readJasmin(new StringReader(text), fileName, false);
+            if (classFile.errorCount() == 0) {
+                NarrowIinc.narrowAll(classFile);
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                classFile.write(bytes);
+                classFiles.put(classFile.getClassName(), bytes.toByteArray());
+            }
+            errors += classFile.errorCount();
+        } catch (Exception e) {
+            errors++;
+            System.out.println(fileName + ": Error - " + e.getMessage());
+        } finally {
+            System.setErr(systemErr);
+        }
+        for (String message : messages.toString().split("\n"))
+            if (!message.isBlank())
+                System.out.println(message.startsWith(fileName) ? message : fileName + ": " + message);
+    }
+
+    @Override
+    public LinkedHashMap<String, byte[]> getClassFiles() {
+        return classFiles;
+    }
+
+    @Override
+    public int getErrors() {
+        return errors;
+    }
+}
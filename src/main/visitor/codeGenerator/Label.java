@@ -0,0 +1,32 @@
+package main.visitor.codeGenerator;
+
+import java.util.Objects;
+
+// A jump target. The code generator uses the same Label object for a jump and for the place it
+// jumps to; labels read from a runtime class are equal when their names are.
+public class Label {
+    private final String name;
+
+    public Label(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Label && ((Label) o).name.equals(name);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(name);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
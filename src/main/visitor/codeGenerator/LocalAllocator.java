@@ -0,0 +1,171 @@
+package main.visitor.codeGenerator;
+
+import main.ast.nodes.declaration.VariableDeclaration;
+import main.ast.nodes.declaration.struct.StructDeclaration;
+import main.ast.nodes.expression.*;
+import main.ast.nodes.statement.*;
+import main.ast.types.*;
+import main.ast.types.primitives.*;
+import main.visitor.optimizer.ExpressionRewriter;
+import main.visitor.optimizer.StructEscapeAnalyzer;
+
+import java.util.*;
+
+// Gives every local of a function body a slot before its code is generated. Each declaration
+// is a local of its own, live from the declaration to its last use; a local used inside a loop
+// it was declared before stays live until that loop ends, since the next iteration may read it
+// again. Locals whose live ranges do not overlap share a slot, and I/Z values only ever share
+// with I/Z values and references with references. Arguments keep the slots the call put them in.
+// A local always starts with a store, so a slot never carries a value from one local to another.
+public class LocalAllocator extends ExpressionRewriter {
+    private final HashMap<String, StructDeclaration> structs;
+    private final HashSet<String> replacedStructs;
+    private final boolean unboxedPrimitives;
+    private final ArrayList<Local> locals = new ArrayList<>();
+    private final HashMap<String, Local> visibleLocals = new HashMap<>();
+    private final IdentityHashMap<VariableDeclaration, ArrayList<Local>> declaredLocals = new IdentityHashMap<>();
+    private final ArrayList<ArrayList<Local>> loops = new ArrayList<>();
+    private int position = 0;
+    private int maxSlot = 0;
+
+    private static class Local {
+        private final String name;
+        private final boolean isPrimitive;
+        private final int start;
+        private final int loopDepth;
+        private int end;
+        private int slot;
+
+        Local(String name, boolean isPrimitive, int start, int loopDepth) {
+            this.name = name;
+            this.isPrimitive = isPrimitive;
+            this.start = start;
+            this.loopDepth = loopDepth;
+            this.end = start;
+        }
+    }
+
+    public LocalAllocator(HashMap<String, StructDeclaration> structs, HashSet<String> replacedStructs,
+                          boolean unboxedPrimitives) {
+        this.structs = structs;
+        this.replacedStructs = replacedStructs;
+        this.unboxedPrimitives = unboxedPrimitives;
+    }
+
+    public void allocate(Statement body, ArrayList<VariableDeclaration> args) {
+        for (VariableDeclaration arg : args) {
+            Local local = declare(arg, arg.getVarName().getName(), arg.getVarType());
+            local.slot = ++maxSlot;
+        }
+        locals.clear();
+        body.accept(this);
+        assignSlots();
+    }
+
+    // The slots of the locals a declaration starts: one for a plain local, or one for every
+    // field path of a struct that is replaced by its fields.
+    public HashMap<String, Integer> getSlots(VariableDeclaration variableDeclaration) {
+        HashMap<String, Integer> slots = new HashMap<>();
+        for (Local local : declaredLocals.getOrDefault(variableDeclaration, new ArrayList<>()))
+            slots.put(local.name, local.slot);
+        return slots;
+    }
+
+    // Linear scan over the locals in the order they start, reusing the lowest free slot of the
+    // right kind.
+    private void assignSlots() {
+        PriorityQueue<Local> active = new PriorityQueue<>(Comparator.comparingInt(local -> local.end));
+        TreeSet<Integer> freePrimitiveSlots = new TreeSet<>();
+        TreeSet<Integer> freeReferenceSlots = new TreeSet<>();
+        for (Local local : locals) {
+            while (!active.isEmpty() && active.peek().end < local.start) {
+                Local expired = active.poll();
+                (expired.isPrimitive ? freePrimitiveSlots : freeReferenceSlots).add(expired.slot);
+            }
+            TreeSet<Integer> freeSlots = local.isPrimitive ? freePrimitiveSlots : freeReferenceSlots;
+            local.slot = freeSlots.isEmpty() ? ++maxSlot : freeSlots.pollFirst();
+            active.add(local);
+        }
+    }
+
+    private Local declare(VariableDeclaration variableDeclaration, String name, Type type) {
+        boolean isPrimitive = unboxedPrimitives && (type instanceof IntType || type instanceof BoolType);
+        Local local = new Local(name, isPrimitive, position++, loops.size());
+        locals.add(local);
+        visibleLocals.put(name, local);
+        declaredLocals.computeIfAbsent(variableDeclaration, k -> new ArrayList<>()).add(local);
+        return local;
+    }
+
+    private void declareFields(VariableDeclaration variableDeclaration, String path, StructType type) {
+        for (VariableDeclaration field : StructEscapeAnalyzer.getFields(structs.get(type.getStructName().getName()))) {
+            String fieldPath = path + "." + field.getVarName().getName();
+            if (replacedStructs.contains(fieldPath))
+                declareFields(variableDeclaration, fieldPath, (StructType) field.getVarType());
+            else
+                declare(variableDeclaration, fieldPath, field.getVarType());
+        }
+    }
+
+    private void use(String name) {
+        Local local = visibleLocals.get(name);
+        if (local == null)
+            return;
+        local.end = position++;
+        if (loops.size() > local.loopDepth)
+            loops.get(local.loopDepth).add(local);
+    }
+
+    @Override
+    public Expression visit(VariableDeclaration variableDeclaration) {
+        super.visit(variableDeclaration);
+        String name = variableDeclaration.getVarName().getName();
+        if (replacedStructs.contains(name))
+            declareFields(variableDeclaration, name, (StructType) variableDeclaration.getVarType());
+        else
+            declare(variableDeclaration, name, variableDeclaration.getVarType());
+        return null;
+    }
+
+    @Override
+    public Expression visit(AssignmentStmt assignmentStmt) {
+        super.visit(assignmentStmt);
+        Expression lValue = assignmentStmt.getLValue();
+        if (lValue instanceof Identifier)
+            use(((Identifier) lValue).getName());
+        if (lValue instanceof StructAccess && isReplacedStructField((StructAccess) lValue))
+            use(StructEscapeAnalyzer.getPath(lValue));
+        return null;
+    }
+
+    @Override
+    public Expression visit(LoopStmt loopStmt) {
+        ArrayList<Local> liveAcrossIterations = new ArrayList<>();
+        loops.add(liveAcrossIterations);
+        super.visit(loopStmt);
+        loops.remove(loops.size() - 1);
+        int end = position++;
+        for (Local local : liveAcrossIterations)
+            local.end = Math.max(local.end, end);
+        return null;
+    }
+
+    private boolean isReplacedStructField(StructAccess structAccess) {
+        return replacedStructs.contains(StructEscapeAnalyzer.getPath(structAccess.getInstance()));
+    }
+
+    @Override
+    public Expression visit(StructAccess structAccess) {
+        if (isReplacedStructField(structAccess)) {
+            use(StructEscapeAnalyzer.getPath(structAccess));
+            return structAccess;
+        }
+        return super.visit(structAccess);
+    }
+
+    @Override
+    public Expression visit(Identifier identifier) {
+        use(identifier.getName());
+        return identifier;
+    }
+}
@@ -0,0 +1,71 @@
+package main.visitor.codeGenerator;
+
+import java.util.Objects;
+
+// The field or method an instruction such as getfield or invokevirtual refers to. A method
+// descriptor starts with its argument list, as in "(I)Ljava/lang/Integer;"; a field descriptor
+// is the type of the field, as in "I".
+public class MemberRef {
+    private final String owner;
+    private final String name;
+    private final String descriptor;
+
+    public MemberRef(String owner, String name, String descriptor) {
+        this.owner = owner;
+        this.name = name;
+        this.descriptor = descriptor;
+    }
+
+    // Reads the Jasmin form of a method, "java/lang/Integer/valueOf(I)Ljava/lang/Integer;".
+    public static MemberRef parseMethod(String text) {
+        int argsStart = text.indexOf('(');
+        int nameSplit = text.lastIndexOf('/', argsStart);
+        return new MemberRef(text.substring(0, nameSplit), text.substring(nameSplit + 1, argsStart),
+                text.substring(argsStart));
+    }
+
+    // Reads the Jasmin form of a field, "IntList/size" followed by the descriptor "I".
+    public static MemberRef parseField(String field, String descriptor) {
+        int nameSplit = field.lastIndexOf('/');
+        return new MemberRef(field.substring(0, nameSplit), field.substring(nameSplit + 1), descriptor);
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getDescriptor() {
+        return descriptor;
+    }
+
+    public boolean isMethod() {
+        return descriptor.startsWith("(");
+    }
+
+    // The type of the value reading the field or calling the method leaves on the stack.
+    public String getValueType() {
+        return isMethod() ? descriptor.substring(descriptor.indexOf(')') + 1) : descriptor;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof MemberRef))
+            return false;
+        MemberRef that = (MemberRef) o;
+        return owner.equals(that.owner) && name.equals(that.name) && descriptor.equals(that.descriptor);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(owner, name, descriptor);
+    }
+
+    @Override
+    public String toString() {
+        return owner + "/" + name + (isMethod() ? "" : " ") + descriptor;
+    }
+}
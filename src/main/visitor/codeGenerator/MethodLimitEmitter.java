@@ -0,0 +1,217 @@
+package main.visitor.codeGenerator;
+
+import java.util.*;
+
+// Sits in front of another emitter and replaces the .limit directives of every method with
+// the exact operand stack depth and local variable count its instructions need.
+public class MethodLimitEmitter implements CodeEmitter {
+    private static final HashMap<String, Integer> stackEffects = new HashMap<>();
+
+    static {
+        for (String opcode : new String[]{"nop", "swap", "ineg", "i2b", "i2c", "i2s", "iinc", "goto", "return",
+                "newarray", "anewarray", "arraylength", "checkcast", "instanceof", "laload", "lneg"})
+            stackEffects.put(opcode, 0);
+        for (String opcode : new String[]{"aconst_null", "iconst_m1", "iconst_0", "iconst_1", "iconst_2",
+                "iconst_3", "iconst_4", "iconst_5", "bipush", "sipush", "ldc", "ldc_w", "iload", "aload", "fload",
+                "dup", "dup_x1", "dup_x2", "new", "i2l"})
+            stackEffects.put(opcode, 1);
+        for (String opcode : new String[]{"ldc2_w", "lload", "dload", "dup2", "lconst_0", "lconst_1"})
+            stackEffects.put(opcode, 2);
+        for (String opcode : new String[]{"istore", "astore", "fstore", "pop", "iaload", "aaload", "baload",
+                "caload", "saload", "iadd", "isub", "imul", "idiv", "irem", "iand", "ior", "ixor", "ishl", "ishr",
+                "iushr", "ifeq", "ifne", "iflt", "ifge", "ifgt", "ifle", "ifnull", "ifnonnull", "ireturn",
+                "areturn", "athrow", "monitorenter", "monitorexit", "lshl", "lshr", "lushr", "l2i"})
+            stackEffects.put(opcode, -1);
+        for (String opcode : new String[]{"lstore", "dstore", "pop2", "if_icmpeq", "if_icmpne", "if_icmplt",
+                "if_icmpge", "if_icmpgt", "if_icmple", "if_acmpeq", "if_acmpne", "ladd", "lsub", "lmul", "ldiv",
+                "land", "lor", "lxor", "lreturn"})
+            stackEffects.put(opcode, -2);
+        for (String opcode : new String[]{"iastore", "aastore", "bastore", "castore", "sastore", "lcmp"})
+            stackEffects.put(opcode, -3);
+        stackEffects.put("lastore", -4);
+    }
+
+    private final CodeEmitter emitter;
+    private Instruction methodHeader;
+    private ArrayList<Instruction> methodInstructions;
+    private ArrayList<Instruction> declaredLimits;
+
+    public MethodLimitEmitter(CodeEmitter emitter) {
+        this.emitter = emitter;
+    }
+
+    @Override
+    public void createClass(String name) {
+        emitter.createClass(name);
+    }
+
+    @Override
+    public void addInstruction(Instruction instruction) {
+        if (methodInstructions == null) {
+            if (instruction.isDirective(".method")) {
+                methodHeader = instruction;
+                methodInstructions = new ArrayList<>();
+                declaredLimits = new ArrayList<>();
+            } else
+                emitter.addInstruction(instruction);
+            return;
+        }
+        if (instruction.isEnd("method")) {
+            emitter.addInstruction(methodHeader);
+            computeLimits(methodHeader);
+            for (Instruction methodInstruction : methodInstructions)
+                emitter.addInstruction(methodInstruction);
+            emitter.addInstruction(instruction);
+            methodInstructions = null;
+        } else if (instruction.isDirective(".limit"))
+            declaredLimits.add(instruction);
+        else
+            methodInstructions.add(instruction);
+    }
+
+    @Override
+    public void closeClass() {
+        emitter.closeClass();
+    }
+
+    @Override
+    public LinkedHashMap<String, byte[]> getClassFiles() {
+        return emitter.getClassFiles();
+    }
+
+    @Override
+    public int getErrors() {
+        return emitter.getErrors();
+    }
+
+    private void computeLimits(Instruction header) {
+        ArrayList<Object> words = header.getOperands();
+        if (words.contains("abstract"))
+            return;
+        String descriptor = (String) words.get(words.size() - 1);
+        int locals = argumentsSize(descriptor.substring(descriptor.indexOf('('))) + (words.contains("static") ? 0 : 1);
+
+        ArrayList<Instruction> instructions = new ArrayList<>();
+        HashMap<Label, Integer> labels = new HashMap<>();
+        ArrayList<Label> handlers = new ArrayList<>();
+        for (Instruction instruction : methodInstructions) {
+            if (instruction.isDirective(".catch")) // .catch <class> from <label> to <label> using <label>
+                handlers.add(new Label((String) instruction.getOperand(6)));
+            else if (instruction.isLabel())
+                labels.put(instruction.getLabel(), instructions.size());
+            else if (instruction.isInstruction()) {
+                instructions.add(instruction);
+                locals = Math.max(locals, localsUsedBy(instruction));
+            }
+        }
+
+        int stack;
+        try {
+            stack = maxStack(instructions, labels, handlers);
+        } catch (IllegalArgumentException e) { // hand written code may use opcodes we have no table entry for
+            for (Instruction declaredLimit : declaredLimits)
+                emitter.addInstruction(declaredLimit);
+            return;
+        }
+        emitter.addInstruction(Instruction.directive(".limit", "stack", String.valueOf(stack)));
+        emitter.addInstruction(Instruction.directive(".limit", "locals", String.valueOf(locals)));
+    }
+
+    private int maxStack(ArrayList<Instruction> instructions, HashMap<Label, Integer> labels, ArrayList<Label> handlers) {
+        int[] depths = new int[instructions.size() + 1];
+        Arrays.fill(depths, -1);
+        ArrayDeque<Integer> worklist = new ArrayDeque<>();
+        depths[0] = 0;
+        worklist.push(0);
+        for (Label handler : handlers) {
+            depths[labels.get(handler)] = 1;
+            worklist.push(labels.get(handler));
+        }
+        int max = 0;
+        while (!worklist.isEmpty()) {
+            int index = worklist.pop();
+            if (index >= instructions.size())
+                continue;
+            Instruction instruction = instructions.get(index);
+            String opcode = instruction.getOpcode();
+            int depth = depths[index] + stackEffect(instruction);
+            max = Math.max(max, Math.max(depth, depths[index]));
+            ArrayList<Integer> successors = new ArrayList<>();
+            if (labels.containsKey(instruction.getLabel()))
+                successors.add(labels.get(instruction.getLabel()));
+            if (!opcode.equals("goto") && !opcode.endsWith("return") && !opcode.equals("athrow"))
+                successors.add(index + 1);
+            for (int successor : successors) {
+                if (depths[successor] < 0) {
+                    depths[successor] = depth;
+                    worklist.push(successor);
+                }
+            }
+        }
+        return max;
+    }
+
+    private int stackEffect(Instruction instruction) {
+        String opcode = instruction.getOpcode();
+        if (opcode.matches("[ifa]load_[0-3]"))
+            return 1;
+        if (opcode.matches("[ld]load_[0-3]"))
+            return 2;
+        if (opcode.matches("[ifa]store_[0-3]"))
+            return -1;
+        if (opcode.matches("[ld]store_[0-3]"))
+            return -2;
+        if (stackEffects.containsKey(opcode))
+            return stackEffects.get(opcode);
+        switch (opcode) {
+            case "getstatic":
+                return typeSize(instruction.getMember().getDescriptor());
+            case "putstatic":
+                return -typeSize(instruction.getMember().getDescriptor());
+            case "getfield":
+                return typeSize(instruction.getMember().getDescriptor()) - 1;
+            case "putfield":
+                return -typeSize(instruction.getMember().getDescriptor()) - 1;
+            case "invokestatic":
+            case "invokevirtual":
+            case "invokespecial":
+            case "invokeinterface":
+                String descriptor = instruction.getMember().getDescriptor();
+                String returnType = descriptor.substring(descriptor.indexOf(')') + 1);
+                int receiver = opcode.equals("invokestatic") ? 0 : 1;
+                return (returnType.equals("V") ? 0 : typeSize(returnType)) - argumentsSize(descriptor) - receiver;
+        }
+        throw new IllegalArgumentException("unknown stack effect of " + opcode);
+    }
+
+    private int localsUsedBy(Instruction instruction) {
+        String opcode = instruction.getOpcode();
+        if (opcode.matches("[ilfda](load|store)_[0-3]"))
+            return opcode.charAt(opcode.length() - 1) - '0' + (opcode.matches("[ld].*") ? 2 : 1);
+        if (opcode.matches("[ilfda](load|store)") || opcode.equals("iinc"))
+            return (Integer) instruction.getOperand(0) + (opcode.matches("[ld].*") ? 2 : 1);
+        return 0;
+    }
+
+    private int argumentsSize(String descriptor) {
+        int size = 0;
+        for (int i = 1; descriptor.charAt(i) != ')'; i++) {
+            if (descriptor.charAt(i) == '[') {
+                while (descriptor.charAt(i) == '[')
+                    i++;
+                if (descriptor.charAt(i) == 'L')
+                    i = descriptor.indexOf(';', i);
+                size++;
+            } else if (descriptor.charAt(i) == 'L') {
+                i = descriptor.indexOf(';', i);
+                size++;
+            } else
+                size += typeSize(String.valueOf(descriptor.charAt(i)));
+        }
+        return size;
+    }
+
+    private int typeSize(String type) {
+        return type.equals("J") || type.equals("D") ? 2 : 1;
+    }
+}
@@ -0,0 +1,51 @@
+package main.visitor.codeGenerator;
+
+import jas.*;
+
+import java.lang.reflect.Field;
+import java.util.Vector;
+
+// The IincOperand of the jas writer inside jasmin.jar takes every increment other than 127 for a
+// wide one, so each iinc it writes, from either backend, is the six-byte wide iinc. The flag is
+// package-private, so it is cleared through reflection on the iincs whose slot and increment fit
+// in a byte. Offsets in the code are only worked out when the class is written, so clearing it
+// before then is safe; if the fields cannot be reached the iincs are left wide, which is still
+// valid code.
+final class NarrowIinc {
+    private NarrowIinc() {
+    }
+
+    static IincInsn narrow(IincInsn insn) {
+        try {
+            Object operand = field(Insn.class, "operand").get(insn);
+            int slot = field(operand.getClass(), "vindex").getInt(operand);
+            int increment = field(operand.getClass(), "constt").getInt(operand);
+            if (slot <= 255 && increment >= Byte.MIN_VALUE && increment <= Byte.MAX_VALUE)
+                field(operand.getClass(), "Wide").setBoolean(operand, false);
+        } catch (ReflectiveOperationException | RuntimeException e) {//left wide
+        }
+        return insn;
+    }
+
+    // Narrows the iincs of every method jasmin read into the class file.
+    static void narrowAll(jasmin.ClassFile classFile) {
+        try {
+            Object classEnv = field(jasmin.ClassFile.class, "class_env").get(classFile);
+            for (Object method : (Vector<?>) field(ClassEnv.class, "methods").get(classEnv)) {
+                Object code = field(Method.class, "code").get(method);
+                if (code == null)
+                    continue;
+                for (Object insn : (Vector<?>) field(CodeAttr.class, "insns").get(code))
+                    if (insn instanceof IincInsn)
+                        narrow((IincInsn) insn);
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {//left wide
+        }
+    }
+
+    private static Field field(Class<?> owner, String name) throws NoSuchFieldException {
+        Field field = owner.getDeclaredField(name);
+        field.setAccessible(true);
+        return field;
+    }
+}
@@ -0,0 +1,166 @@
+package main.visitor.codeGenerator;
+
+import main.CompilerOptions.PeepholeRewrite;
+
+import java.util.*;
+
+// Sits in front of another emitter, buffers each method and rewrites short instruction
+// patterns the code generator leaves behind before the method is passed on.
+public class PeepholeOptimizer implements CodeEmitter {
+    private static final Instruction[][] boxUnboxPairs = {
+            {Instruction.of("invokestatic", new MemberRef("java/lang/Integer", "valueOf", "(I)Ljava/lang/Integer;")),
+                    Instruction.of("invokevirtual", new MemberRef("java/lang/Integer", "intValue", "()I"))},
+            {Instruction.of("invokestatic", new MemberRef("java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;")),
+                    Instruction.of("invokevirtual", new MemberRef("java/lang/Boolean", "booleanValue", "()Z"))}
+    };
+
+    private final CodeEmitter emitter;
+    private final EnumSet<PeepholeRewrite> rewrites;
+    private final EnumMap<PeepholeRewrite, Integer> rewriteCounts = new EnumMap<>(PeepholeRewrite.class);
+    private ArrayList<Instruction> methodInstructions;
+
+    public PeepholeOptimizer(CodeEmitter emitter, EnumSet<PeepholeRewrite> rewrites) {
+        this.emitter = emitter;
+        this.rewrites = rewrites;
+        for (PeepholeRewrite rewrite : PeepholeRewrite.values())
+            rewriteCounts.put(rewrite, 0);
+    }
+
+    public EnumMap<PeepholeRewrite, Integer> getRewriteCounts() {
+        return rewriteCounts;
+    }
+
+    @Override
+    public void createClass(String name) {
+        emitter.createClass(name);
+    }
+
+    @Override
+    public void addInstruction(Instruction instruction) {
+        if (methodInstructions == null) {
+            emitter.addInstruction(instruction);
+            if (instruction.isDirective(".method"))
+                methodInstructions = new ArrayList<>();
+            return;
+        }
+        if (instruction.isEnd("method")) {
+            optimize();
+            for (Instruction methodInstruction : methodInstructions)
+                emitter.addInstruction(methodInstruction);
+            emitter.addInstruction(instruction);
+            methodInstructions = null;
+        } else
+            methodInstructions.add(instruction);
+    }
+
+    @Override
+    public void closeClass() {
+        emitter.closeClass();
+    }
+
+    @Override
+    public LinkedHashMap<String, byte[]> getClassFiles() {
+        return emitter.getClassFiles();
+    }
+
+    @Override
+    public int getErrors() {
+        return emitter.getErrors();
+    }
+
+    private void optimize() {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 0; i < methodInstructions.size(); i++)
+                changed |= rewriteBoxUnbox(i) || rewriteConstantLoad(i) || rewriteCheckcast(i) || rewriteGotoNext(i);
+        }
+    }
+
+    private void count(PeepholeRewrite rewrite) {
+        rewriteCounts.merge(rewrite, 1, Integer::sum);
+    }
+
+    private Instruction instructionAt(int index) {
+        return methodInstructions.get(index);
+    }
+
+    private int nextInstruction(int index) {
+        return index + 1 < methodInstructions.size() ? index + 1 : -1;
+    }
+
+    private boolean rewriteBoxUnbox(int index) {
+        if (!rewrites.contains(PeepholeRewrite.BOX_UNBOX))
+            return false;
+        int next = nextInstruction(index);
+        if (next < 0)
+            return false;
+        for (Instruction[] pair : boxUnboxPairs) {
+            if (instructionAt(index).equals(pair[0]) && instructionAt(next).equals(pair[1])) {
+                methodInstructions.remove(next);
+                methodInstructions.remove(index);
+                count(PeepholeRewrite.BOX_UNBOX);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean rewriteConstantLoad(int index) {
+        if (!rewrites.contains(PeepholeRewrite.CONSTANT_LOAD))
+            return false;
+        Instruction instruction = methodInstructions.get(index);
+        if (!instruction.getOpcode().equals("ldc") || !(instruction.getOperand(0) instanceof Integer))
+            return false;
+        int value = (Integer) instruction.getOperand(0);
+        Instruction replacement;
+        if (value == -1)
+            replacement = Instruction.of("iconst_m1");
+        else if (value >= 0 && value <= 5)
+            replacement = Instruction.of("iconst_" + value);
+        else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE)
+            replacement = Instruction.of("bipush", value);
+        else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE)
+            replacement = Instruction.of("sipush", value);
+        else
+            return false;
+        methodInstructions.set(index, replacement);
+        count(PeepholeRewrite.CONSTANT_LOAD);
+        return true;
+    }
+
+    private boolean rewriteCheckcast(int index) {
+        if (!rewrites.contains(PeepholeRewrite.REDUNDANT_CHECKCAST))
+            return false;
+        int next = nextInstruction(index);
+        if (next < 0 || !methodInstructions.get(next).getOpcode().equals("checkcast"))
+            return false;
+        Instruction checkcast = methodInstructions.get(next);
+        Instruction instruction = methodInstructions.get(index);
+        String opcode = instruction.getOpcode();
+        boolean redundant = instruction.equals(checkcast);
+        if (opcode.equals("getfield") || opcode.equals("getstatic") || opcode.startsWith("invoke"))
+            redundant = instruction.getMember().getValueType().equals("L" + checkcast.getOperand(0) + ";");
+        if (!redundant)
+            return false;
+        methodInstructions.remove(next);
+        count(PeepholeRewrite.REDUNDANT_CHECKCAST);
+        return true;
+    }
+
+    private boolean rewriteGotoNext(int index) {
+        if (!rewrites.contains(PeepholeRewrite.GOTO_NEXT))
+            return false;
+        Instruction instruction = methodInstructions.get(index);
+        if (!instruction.getOpcode().equals("goto"))
+            return false;
+        for (int next = nextInstruction(index); next >= 0 && methodInstructions.get(next).isLabel(); next = nextInstruction(next)) {
+            if (methodInstructions.get(next).getLabel().equals(instruction.getLabel())) {
+                methodInstructions.remove(index);
+                count(PeepholeRewrite.GOTO_NEXT);
+                return true;
+            }
+        }
+        return false;
+    }
+}
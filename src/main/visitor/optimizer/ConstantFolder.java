@@ -0,0 +1,166 @@
+package main.visitor.optimizer;
+
+import main.ast.nodes.Program;
+import main.ast.nodes.declaration.*;
+import main.ast.nodes.declaration.struct.*;
+import main.ast.nodes.expression.*;
+import main.ast.nodes.expression.operators.*;
+import main.ast.nodes.expression.values.primitive.*;
+import main.ast.nodes.statement.*;
+import main.ast.types.primitives.*;
+import main.symbolTable.SymbolTable;
+import main.symbolTable.exceptions.ItemNotFoundException;
+import main.symbolTable.items.FunctionSymbolTableItem;
+
+import java.util.*;
+
+// Runs between the TypeChecker and the CodeGenerator. Expression visits return the expression
+// that should take the place of the visited one, so folded subtrees are swapped for IntValue or
+// BoolValue nodes. int and bool locals that are declared once and never assigned again are
+// replaced by their constant value inside their function.
+public class ConstantFolder extends ExpressionRewriter {
+    private final HashMap<String, Expression> constants = new HashMap<>();
+    private final HashSet<String> propagatable = new HashSet<>();
+
+    @Override
+    public Expression visit(Program program) {
+        for (StructDeclaration structDeclaration : program.getStructs())
+            structDeclaration.accept(this);
+        for (FunctionDeclaration functionDeclaration : program.getFunctions())
+            functionDeclaration.accept(this);
+        program.getMain().accept(this);
+        return null;
+    }
+
+    @Override
+    public Expression visit(StructDeclaration structDeclaration) {
+        constants.clear();
+        propagatable.clear();
+        structDeclaration.getBody().accept(this);
+        return null;
+    }
+
+    @Override
+    public Expression visit(FunctionDeclaration functionDeclaration) {
+        findPropagatableLocals(functionDeclaration.getBody(), functionDeclaration.getArgs());
+        functionDeclaration.getBody().accept(this);
+        return null;
+    }
+
+    @Override
+    public Expression visit(MainDeclaration mainDeclaration) {
+        findPropagatableLocals(mainDeclaration.getBody(), new ArrayList<>());
+        mainDeclaration.getBody().accept(this);
+        return null;
+    }
+
+    private void findPropagatableLocals(Statement body, ArrayList<VariableDeclaration> args) {
+        LocalWriteCounter counter = new LocalWriteCounter();
+        for (VariableDeclaration arg : args)
+            counter.countWrite(arg.getVarName().getName());
+        body.accept(counter);
+        constants.clear();
+        propagatable.clear();
+        for (Map.Entry<String, Integer> writes : counter.writes.entrySet())
+            if (writes.getValue() == 1 && !isFunctionName(writes.getKey()))
+                propagatable.add(writes.getKey());
+    }
+
+    private boolean isFunctionName(String name) {
+        try {
+            SymbolTable.root.getItem(FunctionSymbolTableItem.START_KEY + name);
+            return true;
+        } catch (ItemNotFoundException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public Expression visit(VariableDeclaration variableDeclaration) {
+        super.visit(variableDeclaration);
+        Expression defaultValue = variableDeclaration.getDefaultValue();
+        String name = variableDeclaration.getVarName().getName();
+        if (!propagatable.contains(name))
+            return null;
+        if (defaultValue == null) {
+            if (variableDeclaration.getVarType() instanceof IntType)
+                constants.put(name, new IntValue(0));
+            if (variableDeclaration.getVarType() instanceof BoolType)
+                constants.put(name, new BoolValue(false));
+        } else if (isConstant(defaultValue))
+            constants.put(name, defaultValue);
+        return null;
+    }
+
+    private boolean isConstant(Expression expression) {
+        return expression instanceof IntValue || expression instanceof BoolValue;
+    }
+
+    private Expression withLine(Expression folded, Expression original) {
+        folded.setLine(original.getLine());
+        return folded;
+    }
+
+    @Override
+    public Expression visit(BinaryExpression binaryExpression) {
+        super.visit(binaryExpression);
+        Expression first = binaryExpression.getFirstOperand();
+        Expression second = binaryExpression.getSecondOperand();
+        if (first instanceof IntValue && second instanceof IntValue) {
+            int left = ((IntValue) first).getConstant();
+            int right = ((IntValue) second).getConstant();
+            switch (binaryExpression.getBinaryOperator()) {
+                case add: return withLine(new IntValue(left + right), binaryExpression);
+                case sub: return withLine(new IntValue(left - right), binaryExpression);
+                case mult: return withLine(new IntValue(left * right), binaryExpression);
+                case div:
+                    if (right != 0) // keep the division so it still throws at run time
+                        return withLine(new IntValue(left / right), binaryExpression);
+                    break;
+                case gt: return withLine(new BoolValue(left > right), binaryExpression);
+                case lt: return withLine(new BoolValue(left < right), binaryExpression);
+                case eq: return withLine(new BoolValue(left == right), binaryExpression);
+            }
+        }
+        if (first instanceof BoolValue && second instanceof BoolValue) {
+            boolean left = ((BoolValue) first).getConstant();
+            boolean right = ((BoolValue) second).getConstant();
+            switch (binaryExpression.getBinaryOperator()) {
+                case and: return withLine(new BoolValue(left && right), binaryExpression);
+                case or: return withLine(new BoolValue(left || right), binaryExpression);
+                case eq: return withLine(new BoolValue(left == right), binaryExpression);
+            }
+        }
+        return binaryExpression;
+    }
+
+    @Override
+    public Expression visit(UnaryExpression unaryExpression) {
+        super.visit(unaryExpression);
+        Expression operand = unaryExpression.getOperand();
+        if (unaryExpression.getOperator() == UnaryOperator.minus && operand instanceof IntValue)
+            return withLine(new IntValue(-((IntValue) operand).getConstant()), unaryExpression);
+        if (unaryExpression.getOperator() == UnaryOperator.not && operand instanceof BoolValue)
+            return withLine(new BoolValue(!((BoolValue) operand).getConstant()), unaryExpression);
+        return unaryExpression;
+    }
+
+    @Override
+    public Expression visit(Identifier identifier) {
+        Expression constant = constants.get(identifier.getName());
+        if (constant instanceof IntValue)
+            return withLine(new IntValue(((IntValue) constant).getConstant()), identifier);
+        if (constant instanceof BoolValue)
+            return withLine(new BoolValue(((BoolValue) constant).getConstant()), identifier);
+        return identifier;
+    }
+
+    @Override
+    public Expression visit(ExprInPar exprInPar) {
+        super.visit(exprInPar);
+        ArrayList<Expression> inputs = exprInPar.getInputs();
+        if (inputs.size() == 1 && isConstant(inputs.get(0)))
+            return inputs.get(0);
+        return exprInPar;
+    }
+}
@@ -0,0 +1,168 @@
+package main.visitor.optimizer;
+
+import main.ast.nodes.declaration.VariableDeclaration;
+import main.ast.nodes.expression.*;
+import main.ast.nodes.expression.values.primitive.*;
+import main.ast.nodes.statement.*;
+import main.visitor.Visitor;
+
+import java.util.ArrayList;
+
+// Walks the statements of a body and puts the expression every visit returns in place of the
+// visited one. Subclasses override the visits of the nodes they want to replace. The variable
+// on the left of an assignment is never visited, only the expressions inside it.
+public class ExpressionRewriter extends Visitor<Expression> {
+    @Override
+    public Expression visit(VariableDeclaration variableDeclaration) {
+        if (variableDeclaration.getDefaultValue() != null)
+            variableDeclaration.setDefaultValue(variableDeclaration.getDefaultValue().accept(this));
+        return null;
+    }
+
+    @Override
+    public Expression visit(SetGetVarDeclaration setGetVarDeclaration) {
+        return null;
+    }
+
+    @Override
+    public Expression visit(AssignmentStmt assignmentStmt) {
+        Expression lValue = assignmentStmt.getLValue();
+        if (lValue instanceof ListAccessByIndex) {
+            ((ListAccessByIndex) lValue).setInstance(((ListAccessByIndex) lValue).getInstance().accept(this));
+            ((ListAccessByIndex) lValue).setIndex(((ListAccessByIndex) lValue).getIndex().accept(this));
+        }
+        if (lValue instanceof StructAccess)
+            ((StructAccess) lValue).setInstance(((StructAccess) lValue).getInstance().accept(this));
+        assignmentStmt.setRValue(assignmentStmt.getRValue().accept(this));
+        return null;
+    }
+
+    @Override
+    public Expression visit(BlockStmt blockStmt) {
+        for (Statement statement : blockStmt.getStatements())
+            statement.accept(this);
+        return null;
+    }
+
+    @Override
+    public Expression visit(ConditionalStmt conditionalStmt) {
+        conditionalStmt.setCondition(conditionalStmt.getCondition().accept(this));
+        conditionalStmt.getThenBody().accept(this);
+        if (conditionalStmt.getElseBody() != null)
+            conditionalStmt.getElseBody().accept(this);
+        return null;
+    }
+
+    @Override
+    public Expression visit(FunctionCallStmt functionCallStmt) {
+        functionCallStmt.getFunctionCall().accept(this);
+        return null;
+    }
+
+    @Override
+    public Expression visit(DisplayStmt displayStmt) {
+        displayStmt.setArg(displayStmt.getArg().accept(this));
+        return null;
+    }
+
+    @Override
+    public Expression visit(ReturnStmt returnStmt) {
+        if (returnStmt.getReturnedExpr() != null)
+            returnStmt.setReturnedExpr(returnStmt.getReturnedExpr().accept(this));
+        return null;
+    }
+
+    @Override
+    public Expression visit(LoopStmt loopStmt) {
+        loopStmt.setCondition(loopStmt.getCondition().accept(this));
+        loopStmt.getBody().accept(this);
+        return null;
+    }
+
+    @Override
+    public Expression visit(VarDecStmt varDecStmt) {
+        for (VariableDeclaration variableDeclaration : varDecStmt.getVars())
+            variableDeclaration.accept(this);
+        return null;
+    }
+
+    @Override
+    public Expression visit(ListAppendStmt listAppendStmt) {
+        listAppendStmt.getListAppendExpr().accept(this);
+        return null;
+    }
+
+    @Override
+    public Expression visit(ListSizeStmt listSizeStmt) {
+        listSizeStmt.getListSizeExpr().accept(this);
+        return null;
+    }
+
+    @Override
+    public Expression visit(BinaryExpression binaryExpression) {
+        binaryExpression.setFirstOperand(binaryExpression.getFirstOperand().accept(this));
+        binaryExpression.setSecondOperand(binaryExpression.getSecondOperand().accept(this));
+        return binaryExpression;
+    }
+
+    @Override
+    public Expression visit(UnaryExpression unaryExpression) {
+        unaryExpression.setOperand(unaryExpression.getOperand().accept(this));
+        return unaryExpression;
+    }
+
+    @Override
+    public Expression visit(StructAccess structAccess) {
+        structAccess.setInstance(structAccess.getInstance().accept(this));
+        return structAccess;
+    }
+
+    @Override
+    public Expression visit(Identifier identifier) {
+        return identifier;
+    }
+
+    @Override
+    public Expression visit(ListAccessByIndex listAccessByIndex) {
+        listAccessByIndex.setInstance(listAccessByIndex.getInstance().accept(this));
+        listAccessByIndex.setIndex(listAccessByIndex.getIndex().accept(this));
+        return listAccessByIndex;
+    }
+
+    @Override
+    public Expression visit(FunctionCall functionCall) {
+        functionCall.setInstance(functionCall.getInstance().accept(this));
+        ArrayList<Expression> args = functionCall.getArgs();
+        args.replaceAll(arg -> arg.accept(this));
+        return functionCall;
+    }
+
+    @Override
+    public Expression visit(ListSize listSize) {
+        listSize.setArg(listSize.getArg().accept(this));
+        return listSize;
+    }
+
+    @Override
+    public Expression visit(ListAppend listAppend) {
+        listAppend.setListArg(listAppend.getListArg().accept(this));
+        listAppend.setElementArg(listAppend.getElementArg().accept(this));
+        return listAppend;
+    }
+
+    @Override
+    public Expression visit(IntValue intValue) {
+        return intValue;
+    }
+
+    @Override
+    public Expression visit(BoolValue boolValue) {
+        return boolValue;
+    }
+
+    @Override
+    public Expression visit(ExprInPar exprInPar) {
+        exprInPar.getInputs().replaceAll(input -> input.accept(this));
+        return exprInPar;
+    }
+}
@@ -0,0 +1,381 @@
+package main.visitor.optimizer;
+
+import main.ast.nodes.Program;
+import main.ast.nodes.declaration.*;
+import main.ast.nodes.expression.*;
+import main.ast.nodes.expression.values.primitive.*;
+import main.ast.nodes.statement.*;
+import main.ast.types.ListType;
+import main.visitor.Visitor;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+// Replaces calls to small functions by a copy of the function body. A call is inlined when it is
+// a statement of its own, the value assigned to a local, the default value of a declaration, the
+// displayed value or the returned value: the arguments become locals of the caller and the return that ends the
+// body becomes the statement the call was part of. Lists are assigned to their local rather than
+// declared with it, so they are copied just as a call copies them, unless the body only reads
+// them (see ReadOnlyListArgs) and the local can share the caller's list. Locals of an inlined body are
+// renamed after the call site, so they never share a name or a slot with the caller's.
+// Functions are inlined into their callers bottom-up, and a function that can reach itself
+// through calls is never inlined.
+public class Inliner extends Visitor<Void> {
+    private final int budget;
+    private final HashMap<String, FunctionDeclaration> functions = new HashMap<>();
+    private final HashSet<String> recursive = new HashSet<>();
+    private final ArrayList<String> inlinedCalls = new ArrayList<>();
+    private String caller;
+    private int callSites = 0;
+
+    public Inliner(int budget) {
+        this.budget = budget;
+    }
+
+    public ArrayList<String> getInlinedCalls() {
+        return inlinedCalls;
+    }
+
+    @Override
+    public Void visit(Program program) {
+        HashMap<String, HashSet<String>> callees = new HashMap<>();
+        for (FunctionDeclaration functionDeclaration : program.getFunctions()) {
+            String name = functionDeclaration.getFunctionName().getName();
+            functions.put(name, functionDeclaration);
+            CallCollector collector = new CallCollector();
+            functionDeclaration.getBody().accept(collector);
+            callees.put(name, collector.called);
+        }
+        ArrayList<String> order = new ArrayList<>();
+        HashSet<String> visited = new HashSet<>();
+        for (String name : functions.keySet())
+            postorder(name, callees, visited, order);
+        for (String name : functions.keySet())
+            if (reaches(name, name, callees))
+                recursive.add(name);
+        for (String name : order) {
+            caller = name;
+            FunctionDeclaration functionDeclaration = functions.get(name);
+            functionDeclaration.setBody(inlineCalls(functionDeclaration.getBody()));
+        }
+        caller = "main";
+        program.getMain().setBody(inlineCalls(program.getMain().getBody()));
+        return null;
+    }
+
+    private void postorder(String name, HashMap<String, HashSet<String>> callees, HashSet<String> visited,
+                           ArrayList<String> order) {
+        if (!functions.containsKey(name) || !visited.add(name))
+            return;
+        for (String callee : callees.get(name))
+            postorder(callee, callees, visited, order);
+        order.add(name);
+    }
+
+    private boolean reaches(String from, String target, HashMap<String, HashSet<String>> callees) {
+        ArrayDeque<String> worklist = new ArrayDeque<>(callees.getOrDefault(from, new HashSet<>()));
+        HashSet<String> seen = new HashSet<>();
+        while (!worklist.isEmpty()) {
+            String name = worklist.pop();
+            if (name.equals(target))
+                return true;
+            if (seen.add(name))
+                worklist.addAll(callees.getOrDefault(name, new HashSet<>()));
+        }
+        return false;
+    }
+
+    // Returns the statement to put in place of the given one.
+    private Statement inlineCalls(Statement statement) {
+        if (statement instanceof BlockStmt) {
+            ArrayList<Statement> statements = ((BlockStmt) statement).getStatements();
+            for (int i = 0; i < statements.size(); i++) {
+                ArrayList<Statement> inlined = inline(statements.get(i));
+                if (inlined == null) {
+                    statements.set(i, inlineCalls(statements.get(i)));
+                    continue;
+                }
+                statements.remove(i);
+                statements.addAll(i, inlined);
+                i += inlined.size() - 1;
+            }
+            return statement;
+        }
+        ArrayList<Statement> inlined = inline(statement);
+        if (inlined != null) {
+            BlockStmt blockStmt = new BlockStmt();
+            blockStmt.setStatements(inlined);
+            blockStmt.setLine(statement.getLine());
+            return blockStmt;
+        }
+        if (statement instanceof ConditionalStmt) {
+            ConditionalStmt conditionalStmt = (ConditionalStmt) statement;
+            conditionalStmt.setThenBody(inlineCalls(conditionalStmt.getThenBody()));
+            if (conditionalStmt.getElseBody() != null)
+                conditionalStmt.setElseBody(inlineCalls(conditionalStmt.getElseBody()));
+        }
+        if (statement instanceof LoopStmt)
+            ((LoopStmt) statement).setBody(inlineCalls(((LoopStmt) statement).getBody()));
+        return statement;
+    }
+
+    private FunctionCall getInlinableCall(Expression expression) {
+        if (!(expression instanceof FunctionCall) || !(((FunctionCall) expression).getInstance() instanceof Identifier))
+            return null;
+        FunctionDeclaration callee = functions.get(((Identifier) ((FunctionCall) expression).getInstance()).getName());
+        if (callee == null || recursive.contains(callee.getFunctionName().getName()) || !isInlinable(callee))
+            return null;
+        return (FunctionCall) expression;
+    }
+
+    // Returns null when the statement holds no call that can be inlined.
+    private ArrayList<Statement> inline(Statement statement) {
+        if (statement instanceof FunctionCallStmt) {
+            FunctionCall call = getInlinableCall(((FunctionCallStmt) statement).getFunctionCall());
+            return call == null ? null : inline(call, statement, null);
+        }
+        if (statement instanceof AssignmentStmt && ((AssignmentStmt) statement).getLValue() instanceof Identifier) {
+            FunctionCall call = getInlinableCall(((AssignmentStmt) statement).getRValue());
+            return call == null || !returnsValue(call) ? null
+                    : inline(call, statement, value -> ((AssignmentStmt) statement).setRValue(value));
+        }
+        if (statement instanceof VarDecStmt && ((VarDecStmt) statement).getVars().size() == 1) {
+            VariableDeclaration variableDeclaration = ((VarDecStmt) statement).getVars().get(0);
+            FunctionCall call = getInlinableCall(variableDeclaration.getDefaultValue());
+            return call == null || !returnsValue(call) ? null
+                    : inline(call, statement, variableDeclaration::setDefaultValue);
+        }
+        if (statement instanceof DisplayStmt) {
+            FunctionCall call = getInlinableCall(((DisplayStmt) statement).getArg());
+            return call == null || !returnsValue(call) ? null
+                    : inline(call, statement, ((DisplayStmt) statement)::setArg);
+        }
+        if (statement instanceof ReturnStmt) {
+            FunctionCall call = getInlinableCall(((ReturnStmt) statement).getReturnedExpr());
+            return call == null || !returnsValue(call) ? null
+                    : inline(call, statement, ((ReturnStmt) statement)::setReturnedExpr);
+        }
+        return null;
+    }
+
+    private boolean returnsValue(FunctionCall call) {
+        Statement last = getLastStatement(functions.get(((Identifier) call.getInstance()).getName()).getBody());
+        return last instanceof ReturnStmt && ((ReturnStmt) last).getReturnedExpr() != null;
+    }
+
+    // The value the body returns is handed to setValue, and the statement then ends the inlined
+    // code; a call whose value is unused keeps only the side effects of that value.
+    private ArrayList<Statement> inline(FunctionCall call, Statement statement,
+                                        Consumer<Expression> setValue) {
+        FunctionDeclaration callee = functions.get(((Identifier) call.getInstance()).getName());
+        String suffix = "$" + callSites++;
+        HashMap<String, String> renames = new HashMap<>();
+        for (VariableDeclaration arg : callee.getArgs())
+            renames.put(arg.getVarName().getName(), arg.getVarName().getName() + suffix);
+        LocalNames localNames = new LocalNames();
+        callee.getBody().accept(localNames);
+        for (String name : localNames.names)
+            renames.put(name, name + suffix);
+        ArrayList<Statement> inlined = new ArrayList<>();
+        HashSet<Integer> readOnlyListArgs = ReadOnlyListArgs.find(callee);
+        for (int i = 0; i < callee.getArgs().size(); i++) {
+            VariableDeclaration arg = callee.getArgs().get(i);
+            Identifier name = new Identifier(renames.get(arg.getVarName().getName()));
+            name.setLine(statement.getLine());
+            VariableDeclaration param = new VariableDeclaration(name, arg.getVarType());
+            param.setLine(statement.getLine());
+            VarDecStmt varDecStmt = new VarDecStmt();
+            varDecStmt.addVar(param);
+            varDecStmt.setLine(statement.getLine());
+            inlined.add(varDecStmt);
+            if (arg.getVarType() instanceof ListType && !readOnlyListArgs.contains(i)) {
+                Identifier target = new Identifier(name.getName());
+                target.setLine(statement.getLine());
+                AssignmentStmt assignmentStmt = new AssignmentStmt(target, call.getArgs().get(i));
+                assignmentStmt.setLine(statement.getLine());
+                inlined.add(assignmentStmt);
+            } else
+                param.setDefaultValue(call.getArgs().get(i));
+        }
+        Statement body = new NodeCopier(renames).copy(callee.getBody());
+        if (body instanceof BlockStmt)
+            inlined.addAll(((BlockStmt) body).getStatements());
+        else
+            inlined.add(body);
+        if (!inlined.isEmpty() && inlined.get(inlined.size() - 1) instanceof ReturnStmt) {
+            Expression value = ((ReturnStmt) inlined.remove(inlined.size() - 1)).getReturnedExpr();
+            if (setValue != null)
+                setValue.accept(value);
+            else if (value != null && SideEffects.hasSideEffects(value))
+                inlined.add(valueStatement(value, callee, suffix));
+        }
+        if (setValue != null)
+            inlined.add(statement);
+        inlinedCalls.add(caller + " line " + statement.getLine() + ": " + callee.getFunctionName().getName());
+        return inlined;
+    }
+
+    // Evaluates a returned value that nothing uses into a local of its own.
+    private Statement valueStatement(Expression value, FunctionDeclaration callee, String suffix) {
+        Identifier name = new Identifier("result" + suffix);
+        name.setLine(value.getLine());
+        VariableDeclaration result = new VariableDeclaration(name, callee.getReturnType());
+        result.setDefaultValue(value);
+        result.setLine(value.getLine());
+        VarDecStmt varDecStmt = new VarDecStmt();
+        varDecStmt.addVar(result);
+        varDecStmt.setLine(value.getLine());
+        return varDecStmt;
+    }
+
+    private static Statement getLastStatement(Statement body) {
+        if (!(body instanceof BlockStmt))
+            return body;
+        ArrayList<Statement> statements = ((BlockStmt) body).getStatements();
+        return statements.isEmpty() ? null : statements.get(statements.size() - 1);
+    }
+
+    // A body is inlined only when it is small enough and returns nowhere but at its end.
+    private boolean isInlinable(FunctionDeclaration callee) {
+        NodeCounter counter = new NodeCounter();
+        callee.getBody().accept(counter);
+        if (counter.count > budget)
+            return false;
+        Statement last = getLastStatement(callee.getBody());
+        int finalReturns = last instanceof ReturnStmt ? 1 : 0;
+        if (counter.returns != finalReturns)
+            return false;
+        LocalNames localNames = new LocalNames();
+        callee.getBody().accept(localNames);
+        for (String name : localNames.names)
+            if (functions.containsKey(name))
+                return false;
+        return true;
+    }
+
+    // The functions a body calls by name.
+    private class CallCollector extends ExpressionRewriter {
+        private final HashSet<String> called = new HashSet<>();
+
+        @Override
+        public Expression visit(FunctionCall functionCall) {
+            if (functionCall.getInstance() instanceof Identifier
+                    && functions.containsKey(((Identifier) functionCall.getInstance()).getName()))
+                called.add(((Identifier) functionCall.getInstance()).getName());
+            return super.visit(functionCall);
+        }
+    }
+
+    private static class LocalNames extends ExpressionRewriter {
+        private final HashSet<String> names = new HashSet<>();
+
+        @Override
+        public Expression visit(VariableDeclaration variableDeclaration) {
+            names.add(variableDeclaration.getVarName().getName());
+            return super.visit(variableDeclaration);
+        }
+    }
+
+    // Counts the statements and expressions of a body, and its returns.
+    private static class NodeCounter extends ExpressionRewriter {
+        private int count = 0;
+        private int returns = 0;
+
+        @Override
+        public Expression visit(VariableDeclaration variableDeclaration) {
+            count++;
+            return super.visit(variableDeclaration);
+        }
+
+        @Override
+        public Expression visit(AssignmentStmt assignmentStmt) {
+            count++;
+            return super.visit(assignmentStmt);
+        }
+
+        @Override
+        public Expression visit(ConditionalStmt conditionalStmt) {
+            count++;
+            return super.visit(conditionalStmt);
+        }
+
+        @Override
+        public Expression visit(DisplayStmt displayStmt) {
+            count++;
+            return super.visit(displayStmt);
+        }
+
+        @Override
+        public Expression visit(ReturnStmt returnStmt) {
+            count++;
+            returns++;
+            return super.visit(returnStmt);
+        }
+
+        @Override
+        public Expression visit(LoopStmt loopStmt) {
+            count++;
+            return super.visit(loopStmt);
+        }
+
+        @Override
+        public Expression visit(BinaryExpression binaryExpression) {
+            count++;
+            return super.visit(binaryExpression);
+        }
+
+        @Override
+        public Expression visit(UnaryExpression unaryExpression) {
+            count++;
+            return super.visit(unaryExpression);
+        }
+
+        @Override
+        public Expression visit(StructAccess structAccess) {
+            count++;
+            return super.visit(structAccess);
+        }
+
+        @Override
+        public Expression visit(Identifier identifier) {
+            count++;
+            return identifier;
+        }
+
+        @Override
+        public Expression visit(ListAccessByIndex listAccessByIndex) {
+            count++;
+            return super.visit(listAccessByIndex);
+        }
+
+        @Override
+        public Expression visit(FunctionCall functionCall) {
+            count++;
+            return super.visit(functionCall);
+        }
+
+        @Override
+        public Expression visit(ListSize listSize) {
+            count++;
+            return super.visit(listSize);
+        }
+
+        @Override
+        public Expression visit(ListAppend listAppend) {
+            count++;
+            return super.visit(listAppend);
+        }
+
+        @Override
+        public Expression visit(IntValue intValue) {
+            count++;
+            return intValue;
+        }
+
+        @Override
+        public Expression visit(BoolValue boolValue) {
+            count++;
+            return boolValue;
+        }
+    }
+}
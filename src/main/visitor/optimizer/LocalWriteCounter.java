@@ -0,0 +1,58 @@
+package main.visitor.optimizer;
+
+import main.ast.nodes.declaration.VariableDeclaration;
+import main.ast.nodes.expression.Identifier;
+import main.ast.nodes.statement.*;
+import main.visitor.Visitor;
+
+import java.util.*;
+
+// Counts declarations and assignments of every local name in a function body.
+public class LocalWriteCounter extends Visitor<Void> {
+    final HashMap<String, Integer> writes = new HashMap<>();
+
+    void countWrite(String name) {
+        writes.merge(name, 1, Integer::sum);
+    }
+
+    @Override
+    public Void visit(VariableDeclaration variableDeclaration) {
+        countWrite(variableDeclaration.getVarName().getName());
+        return null;
+    }
+
+    @Override
+    public Void visit(AssignmentStmt assignmentStmt) {
+        if (assignmentStmt.getLValue() instanceof Identifier)
+            countWrite(((Identifier) assignmentStmt.getLValue()).getName());
+        return null;
+    }
+
+    @Override
+    public Void visit(BlockStmt blockStmt) {
+        for (Statement statement : blockStmt.getStatements())
+            statement.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visit(ConditionalStmt conditionalStmt) {
+        conditionalStmt.getThenBody().accept(this);
+        if (conditionalStmt.getElseBody() != null)
+            conditionalStmt.getElseBody().accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visit(LoopStmt loopStmt) {
+        loopStmt.getBody().accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visit(VarDecStmt varDecStmt) {
+        for (VariableDeclaration variableDeclaration : varDecStmt.getVars())
+            variableDeclaration.accept(this);
+        return null;
+    }
+}
@@ -0,0 +1,291 @@
+package main.visitor.optimizer;
+
+import main.ast.nodes.Program;
+import main.ast.nodes.declaration.*;
+import main.ast.nodes.declaration.struct.StructDeclaration;
+import main.ast.nodes.expression.*;
+import main.ast.nodes.expression.operators.*;
+import main.ast.nodes.expression.values.primitive.*;
+import main.ast.nodes.statement.*;
+import main.ast.types.*;
+import main.ast.types.primitives.*;
+
+import java.util.*;
+
+// Hoists loop-invariant expressions out of while and do-while loops into locals declared right
+// before the loop. Only expressions that can neither throw nor change state are hoisted: field
+// reads, list sizes and arithmetic without division. A field read stays in the loop when the
+// loop assigns a field of that name or calls a function, and a list size stays when the loop may
+// append to that list. Lists are copied when they are assigned or passed, so a list local that is
+// never stored into a field or used to initialize another local can only change through its name.
+public class LoopInvariantCodeMotion extends ExpressionRewriter {
+    private final HashMap<String, StructDeclaration> structs = new HashMap<>();
+    private final HashMap<String, Type> localTypes = new HashMap<>();
+    private final HashSet<String> ownedLists = new HashSet<>();
+    private int hoistedCount = 0;
+
+    @Override
+    public Expression visit(Program program) {
+        for (StructDeclaration structDeclaration : program.getStructs())
+            structs.put(structDeclaration.getStructName().getName(), structDeclaration);
+        for (FunctionDeclaration functionDeclaration : program.getFunctions())
+            functionDeclaration.accept(this);
+        program.getMain().accept(this);
+        return null;
+    }
+
+    @Override
+    public Expression visit(FunctionDeclaration functionDeclaration) {
+        findLocals(functionDeclaration.getBody(), functionDeclaration.getArgs());
+        functionDeclaration.getBody().accept(this);
+        return null;
+    }
+
+    @Override
+    public Expression visit(MainDeclaration mainDeclaration) {
+        findLocals(mainDeclaration.getBody(), new ArrayList<>());
+        mainDeclaration.getBody().accept(this);
+        return null;
+    }
+
+    // Only locals declared once have a type that holds across the whole body.
+    private void findLocals(Statement body, ArrayList<VariableDeclaration> args) {
+        LocalUses uses = new LocalUses();
+        for (VariableDeclaration arg : args)
+            uses.declare(arg);
+        body.accept(uses);
+        localTypes.clear();
+        ownedLists.clear();
+        for (Map.Entry<String, Integer> count : uses.declarations.entrySet()) {
+            if (count.getValue() != 1)
+                continue;
+            Type type = uses.types.get(count.getKey());
+            localTypes.put(count.getKey(), type);
+            if (type instanceof ListType && !uses.shared.contains(count.getKey()))
+                ownedLists.add(count.getKey());
+        }
+    }
+
+    // Hoisted locals are declared in the statement list holding the loop, so loops that are not
+    // inside a block are left alone.
+    @Override
+    public Expression visit(BlockStmt blockStmt) {
+        ArrayList<Statement> statements = blockStmt.getStatements();
+        for (int i = 0; i < statements.size(); i++) {
+            if (statements.get(i) instanceof LoopStmt) {
+                LoopStmt loopStmt = (LoopStmt) statements.get(i);
+                Hoister hoister = new Hoister(loopStmt);
+                loopStmt.setCondition(loopStmt.getCondition().accept(hoister));
+                loopStmt.getBody().accept(hoister);
+                if (!hoister.hoisted.isEmpty()) {
+                    VarDecStmt varDecStmt = new VarDecStmt();
+                    varDecStmt.setVars(hoister.hoisted);
+                    varDecStmt.setLine(loopStmt.getLine());
+                    statements.add(i++, varDecStmt);
+                }
+            }
+            statements.get(i).accept(this);
+        }
+        return null;
+    }
+
+    private Type typeOf(Expression expression) {
+        if (expression instanceof ExprInPar && ((ExprInPar) expression).getInputs().size() == 1)
+            return typeOf(((ExprInPar) expression).getInputs().get(0));
+        if (expression instanceof Identifier)
+            return localTypes.get(((Identifier) expression).getName());
+        if (expression instanceof ListSize)
+            return new IntType();
+        if (expression instanceof UnaryExpression)
+            return ((UnaryExpression) expression).getOperator() == UnaryOperator.not ? new BoolType() : new IntType();
+        if (expression instanceof BinaryExpression) {
+            BinaryOperator operator = ((BinaryExpression) expression).getBinaryOperator();
+            if (operator == BinaryOperator.add || operator == BinaryOperator.sub || operator == BinaryOperator.mult)
+                return new IntType();
+            return new BoolType();
+        }
+        if (expression instanceof StructAccess) {
+            Type instanceType = typeOf(((StructAccess) expression).getInstance());
+            if (!(instanceType instanceof StructType))
+                return null;
+            ArrayList<VariableDeclaration> fields = StructEscapeAnalyzer.getFields(
+                    structs.get(((StructType) instanceType).getStructName().getName()));
+            if (fields == null)
+                return null;
+            for (VariableDeclaration field : fields)
+                if (field.getVarName().getName().equals(((StructAccess) expression).getElement().getName()))
+                    return field.getVarType();
+        }
+        return null;
+    }
+
+    // Rewrites one loop, putting a hoisted local in place of each maximal invariant expression.
+    private class Hoister extends ExpressionRewriter {
+        private final LoopEffects effects = new LoopEffects();
+        private final ArrayList<VariableDeclaration> hoisted = new ArrayList<>();
+        private final int line;
+
+        Hoister(LoopStmt loopStmt) {
+            loopStmt.getCondition().accept(effects);
+            loopStmt.getBody().accept(effects);
+            line = loopStmt.getLine();
+        }
+
+        private boolean isInvariant(Expression expression) {
+            if (expression instanceof IntValue || expression instanceof BoolValue)
+                return true;
+            if (expression instanceof ExprInPar)
+                return ((ExprInPar) expression).getInputs().size() == 1
+                        && isInvariant(((ExprInPar) expression).getInputs().get(0));
+            if (expression instanceof Identifier)
+                return !effects.assigned.contains(((Identifier) expression).getName());
+            if (expression instanceof StructAccess)
+                return !effects.hasCall && !effects.assignedFields.contains(((StructAccess) expression).getElement().getName())
+                        && isInvariant(((StructAccess) expression).getInstance());
+            if (expression instanceof ListSize) {
+                Expression list = ((ListSize) expression).getArg();
+                return isInvariant(list) && !mayBeAppendedTo(list);
+            }
+            if (expression instanceof UnaryExpression)
+                return isInvariant(((UnaryExpression) expression).getOperand());
+            if (expression instanceof BinaryExpression) {
+                BinaryOperator operator = ((BinaryExpression) expression).getBinaryOperator();
+                return operator != BinaryOperator.div && operator != BinaryOperator.assign
+                        && isInvariant(((BinaryExpression) expression).getFirstOperand())
+                        && isInvariant(((BinaryExpression) expression).getSecondOperand());
+            }
+            return false;
+        }
+
+        private boolean mayBeAppendedTo(Expression list) {
+            boolean owned = list instanceof Identifier && ownedLists.contains(((Identifier) list).getName());
+            if (!owned && effects.hasCall)
+                return true;
+            for (Expression target : effects.appendTargets) {
+                boolean targetOwned = target instanceof Identifier && ownedLists.contains(((Identifier) target).getName());
+                if (!owned && !targetOwned)
+                    return true;
+                if (owned && targetOwned && ((Identifier) target).getName().equals(((Identifier) list).getName()))
+                    return true;
+            }
+            return false;
+        }
+
+        // Structs stay in place, since a local holding one would keep the struct from being
+        // replaced by its fields.
+        private Expression hoistOrRewrite(Expression expression) {
+            Type type = typeOf(expression);
+            if (!(type instanceof IntType || type instanceof BoolType || type instanceof ListType)
+                    || !isInvariant(expression))
+                return null;
+            Identifier name = new Identifier("licm$" + hoistedCount++);
+            name.setLine(line);
+            VariableDeclaration variableDeclaration = new VariableDeclaration(name, type);
+            variableDeclaration.setDefaultValue(expression);
+            variableDeclaration.setLine(line);
+            hoisted.add(variableDeclaration);
+            localTypes.put(name.getName(), type);
+            Identifier use = new Identifier(name.getName());
+            use.setLine(expression.getLine());
+            return use;
+        }
+
+        @Override
+        public Expression visit(BinaryExpression binaryExpression) {
+            Expression hoistedLocal = hoistOrRewrite(binaryExpression);
+            return hoistedLocal != null ? hoistedLocal : super.visit(binaryExpression);
+        }
+
+        @Override
+        public Expression visit(UnaryExpression unaryExpression) {
+            Expression hoistedLocal = hoistOrRewrite(unaryExpression);
+            return hoistedLocal != null ? hoistedLocal : super.visit(unaryExpression);
+        }
+
+        @Override
+        public Expression visit(StructAccess structAccess) {
+            Expression hoistedLocal = hoistOrRewrite(structAccess);
+            return hoistedLocal != null ? hoistedLocal : super.visit(structAccess);
+        }
+
+        @Override
+        public Expression visit(ListSize listSize) {
+            Expression hoistedLocal = hoistOrRewrite(listSize);
+            return hoistedLocal != null ? hoistedLocal : super.visit(listSize);
+        }
+    }
+
+    // What a loop may change: the locals it assigns or declares, the fields it assigns, the lists
+    // it appends to and whether it calls a function.
+    private static class LoopEffects extends ExpressionRewriter {
+        private final HashSet<String> assigned = new HashSet<>();
+        private final HashSet<String> assignedFields = new HashSet<>();
+        private final ArrayList<Expression> appendTargets = new ArrayList<>();
+        private boolean hasCall = false;
+
+        @Override
+        public Expression visit(VariableDeclaration variableDeclaration) {
+            assigned.add(variableDeclaration.getVarName().getName());
+            return super.visit(variableDeclaration);
+        }
+
+        @Override
+        public Expression visit(AssignmentStmt assignmentStmt) {
+            if (assignmentStmt.getLValue() instanceof Identifier)
+                assigned.add(((Identifier) assignmentStmt.getLValue()).getName());
+            if (assignmentStmt.getLValue() instanceof StructAccess)
+                assignedFields.add(((StructAccess) assignmentStmt.getLValue()).getElement().getName());
+            return super.visit(assignmentStmt);
+        }
+
+        @Override
+        public Expression visit(FunctionCall functionCall) {
+            hasCall = true;
+            return super.visit(functionCall);
+        }
+
+        @Override
+        public Expression visit(ListAppend listAppend) {
+            appendTargets.add(listAppend.getListArg());
+            return super.visit(listAppend);
+        }
+    }
+
+    // Counts the declarations of every local and finds the list locals that may share their list
+    // with a field or another local.
+    private static class LocalUses extends ExpressionRewriter {
+        private final HashMap<String, Integer> declarations = new HashMap<>();
+        private final HashMap<String, Type> types = new HashMap<>();
+        private final HashSet<String> shared = new HashSet<>();
+
+        void declare(VariableDeclaration variableDeclaration) {
+            String name = variableDeclaration.getVarName().getName();
+            declarations.merge(name, 1, Integer::sum);
+            types.put(name, variableDeclaration.getVarType());
+        }
+
+        private void share(Expression expression) {
+            while (expression instanceof ExprInPar && ((ExprInPar) expression).getInputs().size() == 1)
+                expression = ((ExprInPar) expression).getInputs().get(0);
+            if (expression instanceof Identifier)
+                shared.add(((Identifier) expression).getName());
+        }
+
+        @Override
+        public Expression visit(VariableDeclaration variableDeclaration) {
+            declare(variableDeclaration);
+            if (variableDeclaration.getDefaultValue() != null) {
+                shared.add(variableDeclaration.getVarName().getName());
+                share(variableDeclaration.getDefaultValue());
+            }
+            return super.visit(variableDeclaration);
+        }
+
+        @Override
+        public Expression visit(AssignmentStmt assignmentStmt) {
+            if (!(assignmentStmt.getLValue() instanceof Identifier))
+                share(assignmentStmt.getRValue());
+            return super.visit(assignmentStmt);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package main.visitor.optimizer;
+
+import main.ast.nodes.Node;
+import main.ast.nodes.declaration.VariableDeclaration;
+import main.ast.nodes.expression.*;
+import main.ast.nodes.expression.values.primitive.*;
+import main.ast.nodes.statement.*;
+import main.visitor.Visitor;
+
+import java.util.*;
+
+// Deep-copies the statements of a function body, keeping line numbers. Locals named in renames
+// get their new name in declarations and uses; field names and other identifiers are kept.
+public class NodeCopier extends Visitor<Node> {
+    private final HashMap<String, String> renames;
+
+    public NodeCopier(HashMap<String, String> renames) {
+        this.renames = renames;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T extends Node> T copy(T node) {
+        return node == null ? null : (T) node.accept(this);
+    }
+
+    private <T extends Node> T withLine(T copy, Node original) {
+        copy.setLine(original.getLine());
+        return copy;
+    }
+
+    private Identifier rename(Identifier identifier) {
+        return withLine(new Identifier(renames.getOrDefault(identifier.getName(), identifier.getName())), identifier);
+    }
+
+    private ArrayList<Expression> copyAll(ArrayList<Expression> expressions) {
+        ArrayList<Expression> copies = new ArrayList<>();
+        for (Expression expression : expressions)
+            copies.add(copy(expression));
+        return copies;
+    }
+
+    @Override
+    public Node visit(VariableDeclaration variableDeclaration) {
+        VariableDeclaration copy = new VariableDeclaration(rename(variableDeclaration.getVarName()),
+                variableDeclaration.getVarType());
+        copy.setDefaultValue(copy(variableDeclaration.getDefaultValue()));
+        return withLine(copy, variableDeclaration);
+    }
+
+    @Override
+    public Node visit(AssignmentStmt assignmentStmt) {
+        return withLine(new AssignmentStmt(copy(assignmentStmt.getLValue()), copy(assignmentStmt.getRValue())),
+                assignmentStmt);
+    }
+
+    @Override
+    public Node visit(BlockStmt blockStmt) {
+        BlockStmt copy = new BlockStmt();
+        for (Statement statement : blockStmt.getStatements())
+            copy.addStatement(copy(statement));
+        return withLine(copy, blockStmt);
+    }
+
+    @Override
+    public Node visit(ConditionalStmt conditionalStmt) {
+        ConditionalStmt copy = new ConditionalStmt(copy(conditionalStmt.getCondition()));
+        copy.setThenBody(copy(conditionalStmt.getThenBody()));
+        copy.setElseBody(copy(conditionalStmt.getElseBody()));
+        return withLine(copy, conditionalStmt);
+    }
+
+    @Override
+    public Node visit(FunctionCallStmt functionCallStmt) {
+        return withLine(new FunctionCallStmt(copy(functionCallStmt.getFunctionCall())), functionCallStmt);
+    }
+
+    @Override
+    public Node visit(DisplayStmt displayStmt) {
+        return withLine(new DisplayStmt(copy(displayStmt.getArg())), displayStmt);
+    }
+
+    @Override
+    public Node visit(ReturnStmt returnStmt) {
+        ReturnStmt copy = new ReturnStmt();
+        copy.setReturnedExpr(copy(returnStmt.getReturnedExpr()));
+        return withLine(copy, returnStmt);
+    }
+
+    @Override
+    public Node visit(LoopStmt loopStmt) {
+        LoopStmt copy = new LoopStmt();
+        copy.setCondition(copy(loopStmt.getCondition()));
+        copy.setBody(copy(loopStmt.getBody()));
+        copy.setIsDoWhile(loopStmt.getIsDoWhile());
+        return withLine(copy, loopStmt);
+    }
+
+    @Override
+    public Node visit(VarDecStmt varDecStmt) {
+        VarDecStmt copy = new VarDecStmt();
+        for (VariableDeclaration variableDeclaration : varDecStmt.getVars())
+            copy.addVar(copy(variableDeclaration));
+        return withLine(copy, varDecStmt);
+    }
+
+    @Override
+    public Node visit(ListAppendStmt listAppendStmt) {
+        return withLine(new ListAppendStmt((ListAppend) copy(listAppendStmt.getListAppendExpr())), listAppendStmt);
+    }
+
+    @Override
+    public Node visit(ListSizeStmt listSizeStmt) {
+        return withLine(new ListSizeStmt((ListSize) copy(listSizeStmt.getListSizeExpr())), listSizeStmt);
+    }
+
+    @Override
+    public Node visit(BinaryExpression binaryExpression) {
+        return withLine(new BinaryExpression(copy(binaryExpression.getFirstOperand()),
+                copy(binaryExpression.getSecondOperand()), binaryExpression.getBinaryOperator()), binaryExpression);
+    }
+
+    @Override
+    public Node visit(UnaryExpression unaryExpression) {
+        return withLine(new UnaryExpression(copy(unaryExpression.getOperand()), unaryExpression.getOperator()),
+                unaryExpression);
+    }
+
+    @Override
+    public Node visit(StructAccess structAccess) {
+        Identifier element = withLine(new Identifier(structAccess.getElement().getName()), structAccess.getElement());
+        return withLine(new StructAccess(copy(structAccess.getInstance()), element), structAccess);
+    }
+
+    @Override
+    public Node visit(Identifier identifier) {
+        return rename(identifier);
+    }
+
+    @Override
+    public Node visit(ListAccessByIndex listAccessByIndex) {
+        return withLine(new ListAccessByIndex(copy(listAccessByIndex.getInstance()), copy(listAccessByIndex.getIndex())),
+                listAccessByIndex);
+    }
+
+    @Override
+    public Node visit(FunctionCall functionCall) {
+        return withLine(new FunctionCall(copy(functionCall.getInstance()), copyAll(functionCall.getArgs())),
+                functionCall);
+    }
+
+    @Override
+    public Node visit(ListSize listSize) {
+        return withLine(new ListSize(copy(listSize.getArg())), listSize);
+    }
+
+    @Override
+    public Node visit(ListAppend listAppend) {
+        return withLine(new ListAppend(copy(listAppend.getListArg()), copy(listAppend.getElementArg())), listAppend);
+    }
+
+    @Override
+    public Node visit(IntValue intValue) {
+        return withLine(new IntValue(intValue.getConstant()), intValue);
+    }
+
+    @Override
+    public Node visit(BoolValue boolValue) {
+        return withLine(new BoolValue(boolValue.getConstant()), boolValue);
+    }
+
+    @Override
+    public Node visit(ExprInPar exprInPar) {
+        return withLine(new ExprInPar(copyAll(exprInPar.getInputs())), exprInPar);
+    }
+}
@@ -0,0 +1,119 @@
+package main.visitor.optimizer;
+
+import main.ast.nodes.declaration.FunctionDeclaration;
+import main.ast.nodes.declaration.VariableDeclaration;
+import main.ast.nodes.expression.*;
+import main.ast.nodes.statement.*;
+import main.ast.types.*;
+
+import java.util.*;
+
+// Finds the list arguments of a function that a call can pass without copying them. The callee
+// must never change such a list: it is not appended to, no element or field under it is stored
+// to and the argument itself is never assigned. It must not let the list or a list nested in it
+// escape either, by declaring a local with it, storing it in a field or returning it; passing it
+// to another call or assigning it to a local copies it there. A struct argument could reach the
+// caller's lists in place, so a function that takes one gets no shared lists at all.
+public class ReadOnlyListArgs extends ExpressionRewriter {
+    private final HashMap<String, Type> listArgs = new HashMap<>();
+    private final HashSet<String> changed = new HashSet<>();
+
+    private ReadOnlyListArgs() {
+    }
+
+    // The indexes of the arguments whose lists the callee only reads.
+    public static HashSet<Integer> find(FunctionDeclaration function) {
+        HashSet<Integer> readOnly = new HashSet<>();
+        ReadOnlyListArgs analysis = new ReadOnlyListArgs();
+        for (VariableDeclaration arg : function.getArgs()) {
+            if (holdsStruct(arg.getVarType()))
+                return readOnly;
+            if (arg.getVarType() instanceof ListType)
+                analysis.listArgs.put(arg.getVarName().getName(), arg.getVarType());
+        }
+        function.getBody().accept(analysis);
+        for (int i = 0; i < function.getArgs().size(); i++) {
+            String name = function.getArgs().get(i).getVarName().getName();
+            if (analysis.listArgs.containsKey(name) && !analysis.changed.contains(name))
+                readOnly.add(i);
+        }
+        return readOnly;
+    }
+
+    private static boolean holdsStruct(Type type) {
+        if (type instanceof ListType)
+            return holdsStruct(((ListType) type).getType());
+        return type instanceof StructType;
+    }
+
+    private static Expression unwrap(Expression expression) {
+        while (expression instanceof ExprInPar && ((ExprInPar) expression).getInputs().size() == 1)
+            expression = ((ExprInPar) expression).getInputs().get(0);
+        return expression;
+    }
+
+    // The list argument an element, field or list expression is taken from, if any.
+    private String getRoot(Expression expression) {
+        expression = unwrap(expression);
+        while (expression instanceof ListAccessByIndex || expression instanceof StructAccess) {
+            if (expression instanceof ListAccessByIndex)
+                expression = unwrap(((ListAccessByIndex) expression).getInstance());
+            else
+                expression = unwrap(((StructAccess) expression).getInstance());
+        }
+        if (expression instanceof Identifier && listArgs.containsKey(((Identifier) expression).getName()))
+            return ((Identifier) expression).getName();
+        return null;
+    }
+
+    // Marks the list argument an expression evaluates to, or a list nested in it, as escaping.
+    private void escape(Expression expression) {
+        expression = unwrap(expression);
+        int depth = 0;
+        while (expression instanceof ListAccessByIndex) {
+            expression = unwrap(((ListAccessByIndex) expression).getInstance());
+            depth++;
+        }
+        if (!(expression instanceof Identifier))
+            return;
+        Type type = listArgs.get(((Identifier) expression).getName());
+        for (int i = 0; i < depth && type instanceof ListType; i++)
+            type = ((ListType) type).getType();
+        if (type instanceof ListType)
+            changed.add(((Identifier) expression).getName());
+    }
+
+    private void change(Expression expression) {
+        String root = getRoot(expression);
+        if (root != null)
+            changed.add(root);
+    }
+
+    @Override
+    public Expression visit(VariableDeclaration variableDeclaration) {
+        if (variableDeclaration.getDefaultValue() != null)
+            escape(variableDeclaration.getDefaultValue());
+        return super.visit(variableDeclaration);
+    }
+
+    @Override
+    public Expression visit(AssignmentStmt assignmentStmt) {
+        change(assignmentStmt.getLValue());
+        if (assignmentStmt.getLValue() instanceof StructAccess)
+            escape(assignmentStmt.getRValue());
+        return super.visit(assignmentStmt);
+    }
+
+    @Override
+    public Expression visit(ReturnStmt returnStmt) {
+        if (returnStmt.getReturnedExpr() != null)
+            escape(returnStmt.getReturnedExpr());
+        return super.visit(returnStmt);
+    }
+
+    @Override
+    public Expression visit(ListAppend listAppend) {
+        change(listAppend.getListArg());
+        return super.visit(listAppend);
+    }
+}
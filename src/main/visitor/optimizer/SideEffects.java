@@ -0,0 +1,33 @@
+package main.visitor.optimizer;
+
+import main.ast.nodes.expression.*;
+import main.ast.nodes.expression.operators.BinaryOperator;
+
+public class SideEffects {
+    // Calls and list appends change state, and list indexing and division can throw, so none of
+    // them may be skipped, repeated or dropped.
+    public static boolean hasSideEffects(Expression expression) {
+        if (expression instanceof FunctionCall || expression instanceof ListAppend
+                || expression instanceof ListAccessByIndex)
+            return true;
+        if (expression instanceof BinaryExpression) {
+            BinaryExpression binaryExpression = (BinaryExpression) expression;
+            return binaryExpression.getBinaryOperator() == BinaryOperator.div
+                    || hasSideEffects(binaryExpression.getFirstOperand())
+                    || hasSideEffects(binaryExpression.getSecondOperand());
+        }
+        if (expression instanceof UnaryExpression)
+            return hasSideEffects(((UnaryExpression) expression).getOperand());
+        if (expression instanceof ExprInPar) {
+            for (Expression input : ((ExprInPar) expression).getInputs())
+                if (hasSideEffects(input))
+                    return true;
+            return false;
+        }
+        if (expression instanceof StructAccess)
+            return hasSideEffects(((StructAccess) expression).getInstance());
+        if (expression instanceof ListSize)
+            return hasSideEffects(((ListSize) expression).getArg());
+        return false;
+    }
+}
@@ -0,0 +1,255 @@
+package main.visitor.optimizer;
+
+import main.ast.nodes.Program;
+import main.ast.nodes.declaration.*;
+import main.ast.nodes.expression.*;
+import main.ast.nodes.expression.operators.*;
+import main.ast.nodes.expression.values.primitive.*;
+import main.ast.nodes.statement.*;
+import main.ast.types.primitives.IntType;
+
+import java.util.*;
+
+// Finds the basic induction variables of while and do-while loops: int locals declared outside
+// the loop whose only assignment inside it adds or subtracts a constant, as in i = i + 1. A
+// product of an induction variable and a constant or an int local the loop leaves alone is kept
+// in a local of its own, set before the loop and stepped right after the update of the
+// variable, so the loop adds where it used to multiply.
+public class StrengthReduction extends ExpressionRewriter {
+    private final HashSet<String> intLocals = new HashSet<>();
+    private int reducedCount = 0;
+
+    @Override
+    public Expression visit(Program program) {
+        for (FunctionDeclaration functionDeclaration : program.getFunctions())
+            functionDeclaration.accept(this);
+        program.getMain().accept(this);
+        return null;
+    }
+
+    @Override
+    public Expression visit(FunctionDeclaration functionDeclaration) {
+        findIntLocals(functionDeclaration.getBody(), functionDeclaration.getArgs());
+        functionDeclaration.getBody().accept(this);
+        return null;
+    }
+
+    @Override
+    public Expression visit(MainDeclaration mainDeclaration) {
+        findIntLocals(mainDeclaration.getBody(), new ArrayList<>());
+        mainDeclaration.getBody().accept(this);
+        return null;
+    }
+
+    private void findIntLocals(Statement body, ArrayList<VariableDeclaration> args) {
+        LoopAssignments declarations = new LoopAssignments();
+        for (VariableDeclaration arg : args)
+            declarations.visit(arg);
+        body.accept(declarations);
+        intLocals.clear();
+        for (Map.Entry<String, Integer> count : declarations.declared.entrySet())
+            if (count.getValue() == 1 && declarations.intDeclared.contains(count.getKey()))
+                intLocals.add(count.getKey());
+    }
+
+    @Override
+    public Expression visit(BlockStmt blockStmt) {
+        ArrayList<Statement> statements = blockStmt.getStatements();
+        for (int i = 0; i < statements.size(); i++) {
+            if (statements.get(i) instanceof LoopStmt) {
+                ArrayList<VariableDeclaration> reduced = reduce((LoopStmt) statements.get(i));
+                if (!reduced.isEmpty()) {
+                    VarDecStmt varDecStmt = new VarDecStmt();
+                    varDecStmt.setVars(reduced);
+                    varDecStmt.setLine(statements.get(i).getLine());
+                    statements.add(i++, varDecStmt);
+                }
+            }
+            statements.get(i).accept(this);
+        }
+        return null;
+    }
+
+    // Returns the declarations of the reduced products, which go right before the loop.
+    private ArrayList<VariableDeclaration> reduce(LoopStmt loopStmt) {
+        LoopAssignments assignments = new LoopAssignments();
+        loopStmt.getCondition().accept(assignments);
+        loopStmt.getBody().accept(assignments);
+        HashMap<String, Integer> steps = new HashMap<>();
+        for (Map.Entry<String, ArrayList<AssignmentStmt>> assigned : assignments.assignments.entrySet()) {
+            String name = assigned.getKey();
+            if (!intLocals.contains(name) || assignments.declared.containsKey(name) || assigned.getValue().size() != 1)
+                continue;
+            AssignmentStmt update = assigned.getValue().get(0);
+            Integer step = getStep(name, update.getRValue());
+            if (step != null && assignments.parents.containsKey(update))
+                steps.put(name, step);
+        }
+        if (steps.isEmpty())
+            return new ArrayList<>();
+        Reducer reducer = new Reducer(steps, assignments, loopStmt.getLine());
+        loopStmt.setCondition(loopStmt.getCondition().accept(reducer));
+        loopStmt.getBody().accept(reducer);
+        for (Map.Entry<String, ArrayList<Statement>> updates : reducer.updates.entrySet()) {
+            AssignmentStmt update = assignments.assignments.get(updates.getKey()).get(0);
+            ArrayList<Statement> statements = assignments.parents.get(update).getStatements();
+            int index = indexOf(statements, update);
+            statements.addAll(index + 1, updates.getValue());
+        }
+        return reducer.declarations;
+    }
+
+    private static int indexOf(ArrayList<Statement> statements, Statement statement) {
+        for (int i = 0; i < statements.size(); i++)
+            if (statements.get(i) == statement)
+                return i;
+        return -1; //unreachable
+    }
+
+    // The constant an update such as i = i + 2, i = 2 + i or i = i - 2 adds, or null.
+    private static Integer getStep(String name, Expression rValue) {
+        if (!(rValue instanceof BinaryExpression))
+            return null;
+        BinaryExpression binaryExpression = (BinaryExpression) rValue;
+        Expression first = binaryExpression.getFirstOperand();
+        Expression second = binaryExpression.getSecondOperand();
+        if (binaryExpression.getBinaryOperator() == BinaryOperator.add) {
+            if (isVariable(first, name) && second instanceof IntValue)
+                return ((IntValue) second).getConstant();
+            if (isVariable(second, name) && first instanceof IntValue)
+                return ((IntValue) first).getConstant();
+        }
+        if (binaryExpression.getBinaryOperator() == BinaryOperator.sub && isVariable(first, name)
+                && second instanceof IntValue)
+            return -((IntValue) second).getConstant();
+        return null;
+    }
+
+    private static boolean isVariable(Expression expression, String name) {
+        return expression instanceof Identifier && ((Identifier) expression).getName().equals(name);
+    }
+
+    private static <T extends Expression> T withLine(T expression, int line) {
+        expression.setLine(line);
+        return expression;
+    }
+
+    // Puts a reduced local in place of every product of an induction variable in one loop.
+    private class Reducer extends ExpressionRewriter {
+        private final HashMap<String, Integer> steps;
+        private final LoopAssignments assignments;
+        private final int line;
+        private final HashMap<String, String> reducedNames = new HashMap<>();
+        private final ArrayList<VariableDeclaration> declarations = new ArrayList<>();
+        private final HashMap<String, ArrayList<Statement>> updates = new HashMap<>();
+
+        Reducer(HashMap<String, Integer> steps, LoopAssignments assignments, int line) {
+            this.steps = steps;
+            this.assignments = assignments;
+            this.line = line;
+        }
+
+        private boolean isFactor(Expression expression) {
+            if (expression instanceof IntValue)
+                return ((IntValue) expression).getConstant() != 0 && ((IntValue) expression).getConstant() != 1;
+            if (!(expression instanceof Identifier))
+                return false;
+            String name = ((Identifier) expression).getName();
+            return intLocals.contains(name) && !assignments.assignments.containsKey(name)
+                    && !assignments.declared.containsKey(name);
+        }
+
+        @Override
+        public Expression visit(BinaryExpression binaryExpression) {
+            if (binaryExpression.getBinaryOperator() == BinaryOperator.mult) {
+                Expression first = binaryExpression.getFirstOperand();
+                Expression second = binaryExpression.getSecondOperand();
+                if (first instanceof Identifier && steps.containsKey(((Identifier) first).getName()) && isFactor(second))
+                    return withLine(new Identifier(getReducedName(((Identifier) first).getName(), second)),
+                            binaryExpression.getLine());
+                if (second instanceof Identifier && steps.containsKey(((Identifier) second).getName()) && isFactor(first))
+                    return withLine(new Identifier(getReducedName(((Identifier) second).getName(), first)),
+                            binaryExpression.getLine());
+            }
+            return super.visit(binaryExpression);
+        }
+
+        // The local holding variable * factor, declared the first time the product is seen.
+        private String getReducedName(String variable, Expression factor) {
+            String key = variable + "*" + (factor instanceof IntValue ? String.valueOf(((IntValue) factor).getConstant())
+                    : ((Identifier) factor).getName());
+            String name = reducedNames.get(key);
+            if (name != null)
+                return name;
+            name = "iv$" + reducedCount++;
+            reducedNames.put(key, name);
+            intLocals.add(name);
+            declarations.add(declare(name, new BinaryExpression(withLine(new Identifier(variable), line),
+                    copyOf(factor), BinaryOperator.mult)));
+            Expression step;
+            int variableStep = steps.get(variable);
+            if (factor instanceof IntValue)
+                step = new IntValue(variableStep * ((IntValue) factor).getConstant());
+            else if (variableStep == 1)
+                step = copyOf(factor);
+            else {
+                String stepName = "iv$" + reducedCount++;
+                declarations.add(declare(stepName, new BinaryExpression(withLine(new IntValue(variableStep), line),
+                        copyOf(factor), BinaryOperator.mult)));
+                step = new Identifier(stepName);
+            }
+            Expression stepped = new BinaryExpression(withLine(new Identifier(name), line), withLine(step, line),
+                    BinaryOperator.add);
+            AssignmentStmt update = new AssignmentStmt(withLine(new Identifier(name), line), withLine(stepped, line));
+            update.setLine(line);
+            updates.computeIfAbsent(variable, k -> new ArrayList<>()).add(update);
+            return name;
+        }
+
+        private Expression copyOf(Expression factor) {
+            if (factor instanceof IntValue)
+                return withLine(new IntValue(((IntValue) factor).getConstant()), line);
+            return withLine(new Identifier(((Identifier) factor).getName()), line);
+        }
+
+        private VariableDeclaration declare(String name, Expression defaultValue) {
+            VariableDeclaration variableDeclaration = new VariableDeclaration(withLine(new Identifier(name), line),
+                    new IntType());
+            variableDeclaration.setDefaultValue(withLine(defaultValue, line));
+            variableDeclaration.setLine(line);
+            return variableDeclaration;
+        }
+    }
+
+    // The assignments and declarations of a loop body, with the block each statement sits in.
+    private static class LoopAssignments extends ExpressionRewriter {
+        private final HashMap<String, ArrayList<AssignmentStmt>> assignments = new HashMap<>();
+        private final HashMap<String, Integer> declared = new HashMap<>();
+        private final HashSet<String> intDeclared = new HashSet<>();
+        private final IdentityHashMap<Statement, BlockStmt> parents = new IdentityHashMap<>();
+
+        @Override
+        public Expression visit(VariableDeclaration variableDeclaration) {
+            String name = variableDeclaration.getVarName().getName();
+            declared.merge(name, 1, Integer::sum);
+            if (variableDeclaration.getVarType() instanceof IntType)
+                intDeclared.add(name);
+            return super.visit(variableDeclaration);
+        }
+
+        @Override
+        public Expression visit(AssignmentStmt assignmentStmt) {
+            if (assignmentStmt.getLValue() instanceof Identifier)
+                assignments.computeIfAbsent(((Identifier) assignmentStmt.getLValue()).getName(),
+                        k -> new ArrayList<>()).add(assignmentStmt);
+            return super.visit(assignmentStmt);
+        }
+
+        @Override
+        public Expression visit(BlockStmt blockStmt) {
+            for (Statement statement : blockStmt.getStatements())
+                parents.put(statement, blockStmt);
+            return super.visit(blockStmt);
+        }
+    }
+}
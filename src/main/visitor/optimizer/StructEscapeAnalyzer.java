@@ -0,0 +1,243 @@
+package main.visitor.optimizer;
+
+import main.ast.nodes.declaration.VariableDeclaration;
+import main.ast.nodes.declaration.struct.StructDeclaration;
+import main.ast.nodes.expression.*;
+import main.ast.nodes.expression.values.primitive.*;
+import main.ast.nodes.statement.*;
+import main.ast.types.StructType;
+import main.symbolTable.SymbolTable;
+import main.symbolTable.exceptions.ItemNotFoundException;
+import main.symbolTable.items.FunctionSymbolTableItem;
+import main.visitor.Visitor;
+
+import java.util.*;
+
+// Finds the struct locals of a function body that never escape it. A struct escapes when it is
+// used as a value of its own: assigned, passed, returned, displayed, compared or stored in a
+// list or field. The result holds access paths such as "s" and "s.inner", each naming a struct
+// whose fields can live in local slots instead of in an allocated object.
+public class StructEscapeAnalyzer extends Visitor<Void> {
+    private final HashMap<String, StructDeclaration> structs;
+    private final HashMap<String, StructType> structLocals = new HashMap<>();
+    private final HashMap<String, Integer> declarations = new HashMap<>();
+    private final HashSet<String> escapingPaths = new HashSet<>();
+
+    public StructEscapeAnalyzer(HashMap<String, StructDeclaration> structs) {
+        this.structs = structs;
+    }
+
+    public HashSet<String> findReplaceableStructs(Statement body, ArrayList<VariableDeclaration> args) {
+        for (VariableDeclaration arg : args)
+            escapingPaths.add(arg.getVarName().getName());
+        body.accept(this);
+        HashSet<String> replaceable = new HashSet<>();
+        for (Map.Entry<String, StructType> structLocal : structLocals.entrySet())
+            if (declarations.get(structLocal.getKey()) == 1 && !isFunctionName(structLocal.getKey()))
+                addReplaceable(structLocal.getKey(), structLocal.getValue(), replaceable);
+        return replaceable;
+    }
+
+    // A nested struct field is replaced along with its owner unless it is used as a value, in
+    // which case it keeps its own object and only the reference to it moves into a local slot.
+    private void addReplaceable(String path, StructType type, HashSet<String> replaceable) {
+        if (escapingPaths.contains(path))
+            return;
+        ArrayList<VariableDeclaration> fields = getFields(structs.get(type.getStructName().getName()));
+        if (fields == null)
+            return;
+        for (VariableDeclaration field : fields) {
+            Expression defaultValue = field.getDefaultValue();
+            if (defaultValue != null && !(defaultValue instanceof IntValue || defaultValue instanceof BoolValue))
+                return;
+        }
+        replaceable.add(path);
+        for (VariableDeclaration field : fields)
+            if (field.getVarType() instanceof StructType)
+                addReplaceable(path + "." + field.getVarName().getName(), (StructType) field.getVarType(), replaceable);
+    }
+
+    // Returns null when the struct body holds more than plain field declarations.
+    public static ArrayList<VariableDeclaration> getFields(StructDeclaration structDeclaration) {
+        ArrayList<Statement> statements = new ArrayList<>();
+        if (structDeclaration.getBody() instanceof BlockStmt)
+            statements.addAll(((BlockStmt) structDeclaration.getBody()).getStatements());
+        else
+            statements.add(structDeclaration.getBody());
+        ArrayList<VariableDeclaration> fields = new ArrayList<>();
+        for (Statement statement : statements) {
+            if (!(statement instanceof VarDecStmt))
+                return null;
+            fields.addAll(((VarDecStmt) statement).getVars());
+        }
+        return fields;
+    }
+
+    public static String getPath(Expression expression) {
+        if (expression instanceof Identifier)
+            return ((Identifier) expression).getName();
+        if (expression instanceof StructAccess) {
+            String instancePath = getPath(((StructAccess) expression).getInstance());
+            if (instancePath != null)
+                return instancePath + "." + ((StructAccess) expression).getElement().getName();
+        }
+        return null;
+    }
+
+    private boolean isFunctionName(String name) {
+        try {
+            SymbolTable.root.getItem(FunctionSymbolTableItem.START_KEY + name);
+            return true;
+        } catch (ItemNotFoundException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public Void visit(VariableDeclaration variableDeclaration) {
+        String name = variableDeclaration.getVarName().getName();
+        declarations.merge(name, 1, Integer::sum);
+        if (variableDeclaration.getVarType() instanceof StructType)
+            structLocals.put(name, (StructType) variableDeclaration.getVarType());
+        if (variableDeclaration.getDefaultValue() != null) {
+            escapingPaths.add(name);
+            variableDeclaration.getDefaultValue().accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visit(AssignmentStmt assignmentStmt) {
+        assignmentStmt.getLValue().accept(this);
+        assignmentStmt.getRValue().accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visit(BlockStmt blockStmt) {
+        for (Statement statement : blockStmt.getStatements())
+            statement.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visit(ConditionalStmt conditionalStmt) {
+        conditionalStmt.getCondition().accept(this);
+        conditionalStmt.getThenBody().accept(this);
+        if (conditionalStmt.getElseBody() != null)
+            conditionalStmt.getElseBody().accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visit(FunctionCallStmt functionCallStmt) {
+        functionCallStmt.getFunctionCall().accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visit(DisplayStmt displayStmt) {
+        displayStmt.getArg().accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visit(ReturnStmt returnStmt) {
+        if (returnStmt.getReturnedExpr() != null)
+            returnStmt.getReturnedExpr().accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visit(LoopStmt loopStmt) {
+        loopStmt.getCondition().accept(this);
+        loopStmt.getBody().accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visit(VarDecStmt varDecStmt) {
+        for (VariableDeclaration variableDeclaration : varDecStmt.getVars())
+            variableDeclaration.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visit(ListAppendStmt listAppendStmt) {
+        listAppendStmt.getListAppendExpr().accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visit(ListSizeStmt listSizeStmt) {
+        listSizeStmt.getListSizeExpr().accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visit(BinaryExpression binaryExpression) {
+        binaryExpression.getFirstOperand().accept(this);
+        binaryExpression.getSecondOperand().accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visit(UnaryExpression unaryExpression) {
+        unaryExpression.getOperand().accept(this);
+        return null;
+    }
+
+    // The access itself uses its path as a value; the structs it reaches through are only
+    // dereferenced, so they do not escape.
+    @Override
+    public Void visit(StructAccess structAccess) {
+        String path = getPath(structAccess);
+        if (path == null) {
+            structAccess.getInstance().accept(this);
+            return null;
+        }
+        escapingPaths.add(path);
+        return null;
+    }
+
+    @Override
+    public Void visit(Identifier identifier) {
+        escapingPaths.add(identifier.getName());
+        return null;
+    }
+
+    @Override
+    public Void visit(ListAccessByIndex listAccessByIndex) {
+        listAccessByIndex.getInstance().accept(this);
+        listAccessByIndex.getIndex().accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visit(FunctionCall functionCall) {
+        functionCall.getInstance().accept(this);
+        for (Expression arg : functionCall.getArgs())
+            arg.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visit(ListSize listSize) {
+        listSize.getArg().accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visit(ListAppend listAppend) {
+        listAppend.getListArg().accept(this);
+        listAppend.getElementArg().accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visit(ExprInPar exprInPar) {
+        for (Expression input : exprInPar.getInputs())
+            input.accept(this);
+        return null;
+    }
+}
@@ -0,0 +1,86 @@
+package main.visitor.optimizer;
+
+import main.ast.nodes.Program;
+import main.ast.nodes.declaration.*;
+import main.ast.nodes.declaration.struct.StructDeclaration;
+import main.ast.nodes.expression.*;
+import main.ast.types.*;
+import main.visitor.Visitor;
+
+import java.util.*;
+
+// Drops the functions and structs main cannot reach. A function is reached when a reached body
+// names it, whether to call it or to take it as a function pointer, and a struct is reached when
+// the type of a reached local, argument, return value or field mentions it.
+public class TreeShaker extends Visitor<Void> {
+    private final HashMap<String, FunctionDeclaration> functions = new HashMap<>();
+    private final HashMap<String, StructDeclaration> structs = new HashMap<>();
+    private final HashSet<String> reachedFunctions = new HashSet<>();
+    private final HashSet<String> reachedStructs = new HashSet<>();
+    private final ArrayDeque<String> worklist = new ArrayDeque<>();
+    private final ArrayList<String> removedDeclarations = new ArrayList<>();
+
+    public ArrayList<String> getRemovedDeclarations() {
+        return removedDeclarations;
+    }
+
+    @Override
+    public Void visit(Program program) {
+        for (FunctionDeclaration functionDeclaration : program.getFunctions())
+            functions.put(functionDeclaration.getFunctionName().getName(), functionDeclaration);
+        for (StructDeclaration structDeclaration : program.getStructs())
+            structs.put(structDeclaration.getStructName().getName(), structDeclaration);
+        References references = new References();
+        program.getMain().getBody().accept(references);
+        while (!worklist.isEmpty()) {
+            String name = worklist.pop();
+            if (functions.containsKey(name) && reachedFunctions.add(name)) {
+                FunctionDeclaration functionDeclaration = functions.get(name);
+                for (VariableDeclaration arg : functionDeclaration.getArgs())
+                    arg.accept(references);
+                references.reach(functionDeclaration.getReturnType());
+                functionDeclaration.getBody().accept(references);
+            }
+        }
+        for (FunctionDeclaration functionDeclaration : program.getFunctions())
+            if (!reachedFunctions.contains(functionDeclaration.getFunctionName().getName()))
+                removedDeclarations.add("function " + functionDeclaration.getFunctionName().getName());
+        for (StructDeclaration structDeclaration : program.getStructs())
+            if (!reachedStructs.contains(structDeclaration.getStructName().getName()))
+                removedDeclarations.add("struct " + structDeclaration.getStructName().getName());
+        program.getFunctions().removeIf(function -> !reachedFunctions.contains(function.getFunctionName().getName()));
+        program.getStructs().removeIf(struct -> !reachedStructs.contains(struct.getStructName().getName()));
+        return null;
+    }
+
+    // Reaching a struct reaches the types of its fields and the functions their defaults name.
+    private class References extends ExpressionRewriter {
+        private void reach(Type type) {
+            if (type instanceof ListType)
+                reach(((ListType) type).getType());
+            if (type instanceof FptrType) {
+                for (Type argType : ((FptrType) type).getArgsType())
+                    reach(argType);
+                reach(((FptrType) type).getReturnType());
+            }
+            if (type instanceof StructType) {
+                String name = ((StructType) type).getStructName().getName();
+                if (structs.containsKey(name) && reachedStructs.add(name))
+                    structs.get(name).getBody().accept(this);
+            }
+        }
+
+        @Override
+        public Expression visit(VariableDeclaration variableDeclaration) {
+            reach(variableDeclaration.getVarType());
+            return super.visit(variableDeclaration);
+        }
+
+        @Override
+        public Expression visit(Identifier identifier) {
+            if (functions.containsKey(identifier.getName()) && !reachedFunctions.contains(identifier.getName()))
+                worklist.push(identifier.getName());
+            return identifier;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+public class BoolList implements Copyable {
+    public long[] bits;
+    public int size;
+    public int[] owners; // how many lists share bits; the counter itself is shared by them
+
+    public BoolList() {
+        this.bits = new long[1];
+        this.size = 0;
+        this.owners = new int[] {1};
+    }
+
+    public BoolList(BoolList that) {
+        this.bits = that.bits;
+        this.size = that.size;
+        this.owners = that.owners;
+        this.owners[0]++;
+    }
+
+    // Copies the shared bits before they are changed, growing the array when it is full.
+    // It grows to twice what the list needs rather than twice its length, so a list that is
+    // copied and appended to over and over is not doubled by every copy.
+    private void own(int capacity) {
+        int words = (capacity + 63) >> 6;
+        if(this.owners[0] == 1 && words <= this.bits.length)
+            return;
+        this.owners[0]--;
+        long[] copy = new long[Math.max(words * 2, this.bits.length)];
+        System.arraycopy(this.bits, 0, copy, 0, this.bits.length);
+        this.bits = copy;
+        this.owners = new int[] {1};
+    }
+
+    private void checkIndex(int index) {
+        if(index < 0 || index >= this.size)
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + this.size);
+    }
+
+    public boolean getBool(int index) {
+        checkIndex(index);
+        return (this.bits[index >> 6] & (1L << index)) != 0;
+    }
+
+    public int getSize() {return this.size;}
+
+    public void addBool(boolean value) {
+        own(this.size + 1);
+        this.size++;
+        setBool(this.size - 1, value);
+    }
+
+    public void setBool(int index, boolean value) {
+        checkIndex(index);
+        own(this.size);
+        if(value != getBool(index))
+            this.bits[index >> 6] ^= 1L << index;
+    }
+
+    public Object copy() {return new BoolList(this);}
+}
@@ -0,0 +1,5 @@
+// The list classes copy themselves through this, so a list copying its elements copies a nested
+// list without naming the kind of list it is.
+public interface Copyable {
+    Object copy();
+}
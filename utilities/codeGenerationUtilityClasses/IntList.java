@@ -0,0 +1,56 @@
+public class IntList implements Copyable {
+    public int[] elements;
+    public int size;
+    public int[] owners; // how many lists share elements; the counter itself is shared by them
+
+    public IntList() {
+        this.elements = new int[8];
+        this.size = 0;
+        this.owners = new int[] {1};
+    }
+
+    public IntList(IntList that) {
+        this.elements = that.elements;
+        this.size = that.size;
+        this.owners = that.owners;
+        this.owners[0]++;
+    }
+
+    // Copies the shared elements before they are changed, growing the array when it is full.
+    // It grows to twice what the list needs rather than twice its length, so a list that is
+    // copied and appended to over and over is not doubled by every copy.
+    private void own(int capacity) {
+        if(this.owners[0] == 1 && capacity <= this.elements.length)
+            return;
+        this.owners[0]--;
+        int[] copy = new int[Math.max(capacity * 2, this.elements.length)];
+        System.arraycopy(this.elements, 0, copy, 0, this.size);
+        this.elements = copy;
+        this.owners = new int[] {1};
+    }
+
+    private void checkIndex(int index) {
+        if(index < 0 || index >= this.size)
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + this.size);
+    }
+
+    public int getInt(int index) {
+        checkIndex(index);
+        return this.elements[index];
+    }
+
+    public int getSize() {return this.size;}
+
+    public void addInt(int value) {
+        own(this.size + 1);
+        this.elements[this.size++] = value;
+    }
+
+    public void setInt(int index, int value) {
+        checkIndex(index);
+        own(this.size);
+        this.elements[index] = value;
+    }
+
+    public Object copy() {return new IntList(this);}
+}
@@ -1,34 +1,70 @@
 import java.util.ArrayList;
 
-public class List {
+public class List implements Copyable {
     public ArrayList<Object> elements;
+    public int[] owners; // how many lists share elements; the counter itself is shared by them
 
     public List(ArrayList<Object> newElements) {
         this.elements = new ArrayList<>();
         for(Object newElement : newElements)
             this.elements.add(getNewObject(newElement));
+        this.owners = new int[] {1};
     }
 
     public List(List that) {
-        this(that.elements);
+        this.elements = that.elements;
+        this.owners = that.owners;
+        this.owners[0]++;
     }
 
     private Object getNewObject(Object o) {
-        if(o instanceof List)
-            return new List((List) o);
+        if(o instanceof Copyable)
+            return ((Copyable) o).copy();
         else
             return o;
     }
 
+    private boolean isList(Object o) {
+        return o instanceof Copyable;
+    }
+
+    // Copies the shared elements before they are changed. Nested lists are copied the same lazy
+    // way, so each level is only duplicated once one of its owners writes to it.
+    private void own() {
+        if(this.owners[0] == 1)
+            return;
+        this.owners[0]--;
+        ArrayList<Object> copy = new ArrayList<>(this.elements.size());
+        for(Object element : this.elements)
+            copy.add(getNewObject(element));
+        this.elements = copy;
+        this.owners = new int[] {1};
+    }
+
+    // A nested list read from a shared list may be appended to or stored into by whoever reads
+    // it, so the read owns the outer list first. This copies the outer list on the first read of
+    // a nested element even when the caller only reads it; a list passed to a function that never
+    // changes it is not shared by the call and does not pay for this.
     public Object getElement(int index) {
-        return this.elements.get(index);
+        Object element = this.elements.get(index);
+        if(isList(element) && this.owners[0] > 1) { // the nested list may be changed in place
+            own();
+            element = this.elements.get(index);
+        }
+        return element;
     }
 
     public int getSize() {return this.elements.size();}
 
-    public void addElement(Object o) {this.elements.add(getNewObject(o));}
+    public void addElement(Object o) {
+        own();
+        this.elements.add(getNewObject(o));
+    }
 
     public void setElement(int index, Object o) {
+        own();
         this.elements.set(index, getNewObject(o));
     }
-}
\ No newline at end of file
+
+    public Object copy() {return new List(this);}
+}